@@ -38,7 +38,6 @@ public class CameraStartupTest {
 
       SessionStore store = FluxUtil.findStore(activityRule.getActivity(), SessionStore.class);
       store.flowable()
-            .startWith(store.state())
             .filter(s -> s.status == SessionState.Status.READY)
             .timeout(300, TimeUnit.MILLISECONDS)
             .take(1)
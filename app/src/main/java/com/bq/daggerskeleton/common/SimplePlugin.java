@@ -23,6 +23,11 @@ public abstract class SimplePlugin implements Plugin {
 
    private final CompositeDisposable compositeDisposable = new CompositeDisposable();
 
+   /**
+    * Keep a subscription, such as the ones returned by
+    * {@link com.bq.daggerskeleton.flux.Dispatcher#subscribe(Class, io.reactivex.functions.Consumer)},
+    * until {@link #onDestroy()}, where all of them are disposed.
+    */
    public void track(Disposable disposable) {
       compositeDisposable.add(disposable);
    }
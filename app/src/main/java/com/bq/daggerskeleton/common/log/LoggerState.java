@@ -2,13 +2,23 @@ package com.bq.daggerskeleton.common.log;
 
 import android.support.annotation.Nullable;
 
-public class LoggerState {
+import com.bq.daggerskeleton.flux.ImmutableState;
+
+public final class LoggerState extends ImmutableState {
    @Nullable public final FileLogger fileLogger;
 
    public LoggerState(@Nullable FileLogger fileLogger) {
       this.fileLogger = fileLogger;
    }
 
+   @Override protected int computeHashCode() {
+      return System.identityHashCode(fileLogger);
+   }
+
+   @Override protected boolean contentEquals(ImmutableState o) {
+      return fileLogger == ((LoggerState) o).fileLogger;
+   }
+
    @Override public String toString() {
       return "LoggerState{" +
             "fileLogger=" + fileLogger +
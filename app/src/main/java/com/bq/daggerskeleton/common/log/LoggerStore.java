@@ -1,7 +1,8 @@
 package com.bq.daggerskeleton.common.log;
 
-import com.bq.daggerskeleton.flux.Dispatcher;
 import com.bq.daggerskeleton.flux.InitAction;
+import com.bq.daggerskeleton.flux.OnAction;
+import com.bq.daggerskeleton.flux.StateSchema;
 import com.bq.daggerskeleton.flux.Store;
 import com.bq.daggerskeleton.sample.app.App;
 import com.bq.daggerskeleton.sample.app.AppScope;
@@ -46,6 +47,7 @@ public class LoggerStore extends Store<LoggerState> {
    private static final DateFormat FILE_NAME_DATE_FORMAT = new SimpleDateFormat("dd-MM-yyyy HH:mm:ss", Locale.US);
 
    private final App app;
+   private final Lazy<Set<Store<?>>> stores;
 
    @Override protected LoggerState initialState() {
       return new LoggerState(null);
@@ -53,6 +55,7 @@ public class LoggerStore extends Store<LoggerState> {
 
    @Inject LoggerStore(App app, Lazy<Set<Store<?>>> stores) {
       this.app = app;
+      this.stores = stores;
       Timber.plant(new FileLoggerTree());
 
       createLogFile()
@@ -60,13 +63,16 @@ public class LoggerStore extends Store<LoggerState> {
             .subscribeOn(Schedulers.io())
             .subscribe();
 
-      Dispatcher.subscribe(InitAction.class)
-            .observeOn(Schedulers.io())
-            .subscribe(a -> {
-               for (Store<?> store : stores.get()) {
-                  subscribeToObservableUnsafe(store.flowable(), store.getClass().getSimpleName(), "State");
-               }
-            });
+      route();
+   }
+
+   @OnAction
+   void onInit(InitAction a) {
+      Completable.fromAction(() -> {
+         for (Store<?> store : stores.get()) {
+            logStateChanges(store);
+         }
+      }).subscribeOn(Schedulers.io()).subscribe();
    }
 
    private Completable createLogFile() {
@@ -88,8 +94,8 @@ public class LoggerStore extends Store<LoggerState> {
          String logFileName = String.format("%s-%s.log", "camera", FILE_NAME_DATE_FORMAT.format(new Date()));
          File logFile = new File(logRootDirectory, logFileName);
          d(TAG, "New session, logs will be stored in: " + logFile.getAbsolutePath());
-         LoggerState newState = new LoggerState(new FileLogger(logFile));
-         setState(newState);
+         FileLogger fileLogger = new FileLogger(logFile);
+         update(state -> new LoggerState(fileLogger)); //Running in io, not a reducer
          s.onComplete();
       });
    }
@@ -122,6 +128,35 @@ public class LoggerStore extends Store<LoggerState> {
       });
    }
 
+   /**
+    * Log the fields that change on every state if the store has a {@link StateSchema},
+    * the whole state otherwise.
+    */
+   private static <S> Disposable logStateChanges(Store<S> store) {
+      String tag = store.getClass().getSimpleName();
+      StateSchema<S> schema = store.stateSchema();
+      if (schema == null) return subscribeToObservableUnsafe(store.flowable(), tag, "State");
+
+      StringBuilder line = new StringBuilder(); //Only used from the single io worker
+      return store.flowable()
+            .observeOn(Schedulers.io())
+            .subscribe(new Consumer<S>() {
+               private S previous;
+
+               @Override public void accept(S state) {
+                  line.setLength(0);
+                  if (previous == null) {
+                     schema.describe(state, line);
+                  } else if (!schema.diff(previous, state, line)) {
+                     previous = state;
+                     return;
+                  }
+                  previous = state;
+                  Timber.tag(tag).i("State <- %s", line);
+               }
+            }, error -> Timber.tag(tag).e("State <- %s", error));
+   }
+
    @SuppressWarnings("unchecked")
    public static Disposable subscribeToObservableUnsafe(Object observable, String tag, String linePrefix) {
 
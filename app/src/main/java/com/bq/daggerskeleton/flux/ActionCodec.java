@@ -0,0 +1,14 @@
+package com.bq.daggerskeleton.flux;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary representation of an action type, used by {@link ActionJournal} to record actions
+ * and by {@link JournalReplayer} to read them back. Encoded actions must stay under 64kb.
+ */
+public interface ActionCodec<T extends Action> {
+
+   void encode(T action, ByteBuffer out);
+
+   T decode(ByteBuffer in);
+}
@@ -0,0 +1,66 @@
+package com.bq.daggerskeleton.flux;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.concurrent.Callable;
+
+/**
+ * Registry of {@link ActionCodec}s by action class and by the numeric id written in a journal.
+ * Ids must be positive and stable across versions for old journals to be replayed.
+ */
+public final class ActionCodecs {
+
+   private final IdentityHashMap<Class<?>, Registration> byType = new IdentityHashMap<>();
+   private final HashMap<Short, Registration> byId = new HashMap<>();
+
+   public <T extends Action> ActionCodecs register(int id, Class<T> actionType, ActionCodec<T> codec) {
+      if (id <= 0 || id > Short.MAX_VALUE) {
+         throw new IllegalArgumentException("Codec id out of range: " + id);
+      }
+      Registration registration = new Registration((short) id, codec);
+      if (byId.containsKey(registration.id) || byType.containsKey(actionType)) {
+         throw new IllegalArgumentException("Duplicated codec for " + actionType + " with id " + id);
+      }
+      byType.put(actionType, registration);
+      byId.put(registration.id, registration);
+      return this;
+   }
+
+   /**
+    * Register an action without fields, decoding creates a new instance with the factory.
+    */
+   public <T extends Action> ActionCodecs register(int id, Class<T> actionType, Callable<T> factory) {
+      return register(id, actionType, new ActionCodec<T>() {
+         @Override public void encode(T action, ByteBuffer out) {
+         }
+
+         @Override public T decode(ByteBuffer in) {
+            try {
+               return factory.call();
+            } catch (Exception e) {
+               throw new RuntimeException(e);
+            }
+         }
+      });
+   }
+
+   Registration forType(Class<?> actionType) {
+      return byType.get(actionType);
+   }
+
+   Registration forId(short id) {
+      return byId.get(id);
+   }
+
+   static final class Registration {
+      final short id;
+      final ActionCodec<Action> codec;
+
+      @SuppressWarnings("unchecked")
+      Registration(short id, ActionCodec<? extends Action> codec) {
+         this.id = id;
+         this.codec = (ActionCodec<Action>) codec;
+      }
+   }
+}
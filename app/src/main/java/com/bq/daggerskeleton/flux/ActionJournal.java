@@ -0,0 +1,100 @@
+package com.bq.daggerskeleton.flux;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import timber.log.Timber;
+
+/**
+ * Flight recorder for the {@link Dispatcher}. Appends every dispatched action with a registered
+ * codec to a memory-mapped file, so the journal survives a crash without explicit flushes.
+ * <p>
+ * Layout: a header ({@link #MAGIC}, {@link #VERSION}) followed by entries of
+ * <code>[short codecId][byte flags][long startNanos][long durationNanos][short length][payload]</code>.
+ * A codec id of 0 marks the end of the journal. Once the file is full recording stops.
+ * Replay it with {@link JournalReplayer}.
+ * <p>
+ * Actions dispatched by subscribers are recorded with {@link #FLAG_NESTED}, replaying their parent
+ * dispatches them again.
+ */
+public final class ActionJournal implements TraceSink {
+
+   static final int MAGIC = 0x464C5558; //FLUX
+   static final short VERSION = 2;
+   static final short END_OF_JOURNAL = 0;
+   static final byte FLAG_NESTED = 1;
+   static final int ENTRY_HEADER_SIZE = 2 + 1 + 8 + 8 + 2;
+
+   private final ActionCodecs codecs;
+   private final MappedByteBuffer buffer;
+   private boolean full = false;
+   private long skipped = 0;
+
+   /**
+    * Create a new journal, replacing the file if it already exists.
+    *
+    * @param maxSize Size in bytes mapped for the journal.
+    */
+   public ActionJournal(File file, int maxSize, ActionCodecs codecs) throws IOException {
+      this.codecs = codecs;
+      RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+      try {
+         randomAccessFile.setLength(0); //Start zeroed, so any stale entry reads as the end
+         FileChannel channel = randomAccessFile.getChannel();
+         buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, maxSize);
+      } finally {
+         randomAccessFile.close(); //The mapping stays valid
+      }
+      buffer.putInt(MAGIC);
+      buffer.putShort(VERSION);
+   }
+
+   @Override public void onDispatched(Action action, boolean nested, long startNanos, long durationNanos) {
+      if (full) return;
+      ActionCodecs.Registration registration = codecs.forType(action.getClass());
+      if (registration == null) {
+         skipped++;
+         return;
+      }
+
+      int entryStart = buffer.position();
+      try {
+         buffer.putShort(registration.id);
+         buffer.put(nested ? FLAG_NESTED : 0);
+         buffer.putLong(startNanos);
+         buffer.putLong(durationNanos);
+         int lengthPosition = buffer.position();
+         buffer.putShort((short) 0);
+         registration.codec.encode(action, buffer);
+         buffer.putShort(lengthPosition, (short) (buffer.position() - lengthPosition - 2));
+      } catch (BufferOverflowException e) {
+         //Truncate the partial entry and stop
+         if (entryStart + 2 <= buffer.limit()) buffer.putShort(entryStart, END_OF_JOURNAL);
+         buffer.position(entryStart);
+         full = true;
+         Timber.w("Action journal full, recording stopped");
+      }
+   }
+
+   /**
+    * @return Actions not recorded because their type has no codec.
+    */
+   public long skipped() {
+      return skipped;
+   }
+
+   public boolean isFull() {
+      return full;
+   }
+
+   /**
+    * Write the mapped pages to disk. Not needed to survive a process crash, only a device crash.
+    */
+   public void force() {
+      buffer.force();
+   }
+}
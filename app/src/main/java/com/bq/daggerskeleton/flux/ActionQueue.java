@@ -0,0 +1,118 @@
+package com.bq.daggerskeleton.flux;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.reactivex.functions.Consumer;
+
+/**
+ * Unbounded, lock-free, multi-producer / single-consumer queue of actions.
+ * <p>
+ * Any thread can {@link #offer(Action)}, only one thread at a time can {@link #drain(Consumer)}.
+ * Actions are drained in the exact order producers linked them into the queue, except
+ * {@link CoalescableAction}s that are dropped if a newer instance of the same class is queued.
+ */
+final class ActionQueue {
+
+   /** Last node linked by a producer. */
+   private final AtomicReference<Node> head;
+   /** Last node consumed, only touched by the consumer. */
+   private Node tail;
+   private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+
+   //Consumer side, reused between drains
+   private final ArrayList<Action> pending = new ArrayList<>();
+   private final IdentityHashMap<Class<?>, Action> latestCoalescable = new IdentityHashMap<>();
+   private long coalesced = 0;
+
+   ActionQueue() {
+      Node stub = new Node(null);
+      head = new AtomicReference<>(stub);
+      tail = stub;
+   }
+
+   /**
+    * Enqueue an action from any thread.
+    *
+    * @return <code>true</code> if the consumer was idle and the caller must schedule a
+    * {@link #drain(Consumer)}, <code>false</code> if a drain is already pending.
+    */
+   boolean offer(Action action) {
+      Node node = new Node(action);
+      Node previous = head.getAndSet(node);
+      previous.next = node;
+      return drainScheduled.compareAndSet(false, true);
+   }
+
+   /**
+    * Deliver every queued action to the consumer, in enqueue order. Must be called from a single
+    * thread. Actions offered while draining are delivered in the same drain.
+    *
+    * @return Number of actions delivered.
+    */
+   int drain(Consumer<Action> consumer) throws Exception {
+      //Reset before polling, anything offered from now on either gets polled here or schedules a new drain
+      drainScheduled.set(false);
+      int drained = 0;
+      try {
+         while (pollAll()) {
+            for (int i = 0; i < pending.size(); i++) {
+               Action action = pending.get(i);
+               if (action instanceof CoalescableAction
+                     && latestCoalescable.get(action.getClass()) != action) {
+                  coalesced++;
+                  continue;
+               }
+               consumer.accept(action);
+               drained++;
+            }
+            pending.clear();
+            latestCoalescable.clear();
+         }
+      } finally {
+         pending.clear();
+         latestCoalescable.clear();
+      }
+      return drained;
+   }
+
+   /**
+    * @return Actions dropped because a newer instance of the same type was queued.
+    */
+   long coalesced() {
+      return coalesced;
+   }
+
+   /**
+    * Move every action currently linked to {@link #pending}, remembering the latest instance
+    * of every coalescable type.
+    */
+   private boolean pollAll() {
+      Action action;
+      while ((action = poll()) != null) {
+         pending.add(action);
+         if (action instanceof CoalescableAction) latestCoalescable.put(action.getClass(), action);
+      }
+      return !pending.isEmpty();
+   }
+
+   private Action poll() {
+      Node next = tail.next;
+      if (next == null) return null;
+      Action action = next.action;
+      next.action = null; //Don't retain it, this node becomes the new stub
+      tail = next;
+      return action;
+   }
+
+   private static final class Node {
+      Action action;
+      volatile Node next;
+
+      Node(Action action) {
+         this.action = action;
+      }
+   }
+}
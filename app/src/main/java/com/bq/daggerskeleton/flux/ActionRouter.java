@@ -0,0 +1,16 @@
+package com.bq.daggerskeleton.flux;
+
+/**
+ * Generated for every {@link Store} with {@link OnAction} methods. Each handler gets an id,
+ * from 0 to {@link #routeCount()} - 1, and {@link #route(int, Action)} calls it directly.
+ */
+public interface ActionRouter {
+
+   int routeCount();
+
+   Class<?> actionType(int id);
+
+   int priority(int id);
+
+   void route(int id, Action action);
+}
@@ -0,0 +1,8 @@
+package com.bq.daggerskeleton.flux;
+
+/**
+ * Action where only the latest instance matters. When several instances of the same class wait
+ * in the {@link Dispatcher#dispatchOnUi(Action)} queue, only the last one is dispatched.
+ */
+public interface CoalescableAction extends Action {
+}
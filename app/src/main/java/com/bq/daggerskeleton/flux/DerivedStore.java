@@ -0,0 +1,69 @@
+package com.bq.daggerskeleton.flux;
+
+import io.reactivex.disposables.Disposable;
+
+/**
+ * Store whose state is computed from the state of other stores instead of reduced from actions.
+ * <p>
+ * Derived stores are recomputed once after every dispatch, when all the reducers already ran, so
+ * {@link #derive()} always sees a consistent view of its upstream stores and subscribers never see
+ * intermediate combinations. Stores can only depend on stores created before them, so updating
+ * them in creation order is a topological order and a derived store that depends on another
+ * derived store sees its final state.
+ * <p>
+ * The Dispatcher keeps every derived store until it is disposed. Dispose the ones created in a
+ * plugin or activity scope with it, for example with
+ * {@link com.bq.daggerskeleton.common.SimplePlugin#track(Disposable)}.
+ */
+public abstract class DerivedStore<S> extends Store<S> implements Disposable {
+
+   private final Store<?>[] upstream;
+   private final Object[] inputs;
+   private final Disposable registration;
+
+   protected DerivedStore(Store<?>... upstream) {
+      this.upstream = upstream.clone();
+      this.inputs = new Object[upstream.length];
+      this.registration = Dispatcher.addDerivedStore(this);
+   }
+
+   /**
+    * Stop deriving the state, it keeps the last one. Must be called from the ui thread.
+    */
+   @Override public final void dispose() {
+      registration.dispose();
+   }
+
+   @Override public final boolean isDisposed() {
+      return registration.isDisposed();
+   }
+
+   /**
+    * @return State computed only from the upstream stores state.
+    */
+   protected abstract S derive();
+
+   @Override protected final S initialState() {
+      readInputs();
+      return derive();
+   }
+
+   /**
+    * Derive the state again if any upstream state changed since the last time.
+    */
+   final void propagate() {
+      if (readInputs()) setState(derive());
+   }
+
+   private boolean readInputs() {
+      boolean changed = false;
+      for (int i = 0; i < upstream.length; i++) {
+         Object input = upstream[i].state();
+         if (input != inputs[i]) {
+            inputs[i] = input;
+            changed = true;
+         }
+      }
+      return changed;
+   }
+}
@@ -0,0 +1,140 @@
+package com.bq.daggerskeleton.flux;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency statistics collected by the {@link Dispatcher} for every action type and every
+ * subscription, see {@link Dispatcher#enableStats()}.
+ * <p>
+ * Recorded and meant to be read on the ui thread, reading from other threads gives a best
+ * effort snapshot.
+ */
+public final class DispatchStats {
+
+   private final IdentityHashMap<Class<?>, Entry> actions = new IdentityHashMap<>();
+   private final ArrayList<Entry> subscriptions = new ArrayList<>();
+
+   DispatchStats() {
+   }
+
+   Entry actionEntry(Class<?> actionType) {
+      Entry entry = actions.get(actionType);
+      if (entry == null) {
+         entry = new Entry(this, actionType.getSimpleName());
+         actions.put(actionType, entry);
+      }
+      return entry;
+   }
+
+   Entry newSubscriptionEntry(String name) {
+      Entry entry = new Entry(this, name);
+      subscriptions.add(entry);
+      return entry;
+   }
+
+   void removeSubscriptionEntry(Entry entry) {
+      subscriptions.remove(entry);
+   }
+
+   /**
+    * @return Stats for the action type, or null if it was never dispatched since enabled.
+    */
+   public Entry forAction(Class<? extends Action> actionType) {
+      return actions.get(actionType);
+   }
+
+   /**
+    * @return Every action type dispatched, slowest total time first.
+    */
+   public List<Entry> actions() {
+      return sorted(new ArrayList<>(actions.values()));
+   }
+
+   /**
+    * @return Every subscription called, slowest total time first.
+    */
+   public List<Entry> subscriptions() {
+      return sorted(new ArrayList<>(subscriptions));
+   }
+
+   public void reset() {
+      for (Entry entry : actions.values()) entry.reset();
+      for (Entry entry : subscriptions) entry.reset();
+   }
+
+   public String dump() {
+      StringBuilder sb = new StringBuilder();
+      sb.append("┌ Dispatch stats, times in us\n");
+      sb.append("├─ Actions\n");
+      for (Entry entry : actions()) sb.append("├ ").append(entry).append('\n');
+      sb.append("├─ Subscriptions\n");
+      for (Entry entry : subscriptions()) sb.append("├ ").append(entry).append('\n');
+      sb.append("└");
+      return sb.toString();
+   }
+
+   private static List<Entry> sorted(List<Entry> entries) {
+      Collections.sort(entries, (a, b) -> Long.compare(b.histogram.total(), a.histogram.total()));
+      return entries;
+   }
+
+   public static final class Entry {
+      final DispatchStats owner;
+      public final String name;
+      private final LatencyHistogram histogram = new LatencyHistogram();
+      private int maxDepth = 0;
+
+      private Entry(DispatchStats owner, String name) {
+         this.owner = owner;
+         this.name = name;
+      }
+
+      void record(long nanos, int depth) {
+         histogram.record(nanos);
+         if (depth > maxDepth) maxDepth = depth;
+      }
+
+      public long count() {
+         return histogram.count();
+      }
+
+      public long totalNanos() {
+         return histogram.total();
+      }
+
+      public long maxNanos() {
+         return histogram.max();
+      }
+
+      public long percentileNanos(double percentile) {
+         return histogram.percentile(percentile);
+      }
+
+      /**
+       * @return Deepest nesting seen, 1 for dispatches that happened outside any other dispatch.
+       */
+      public int maxDepth() {
+         return maxDepth;
+      }
+
+      void reset() {
+         histogram.reset();
+         maxDepth = 0;
+      }
+
+      @Override public String toString() {
+         return String.format(Locale.US, "%s - count %d, total %d, p50 %d, p99 %d, max %d, depth %d",
+               name, count(), micros(totalNanos()), micros(percentileNanos(50)),
+               micros(percentileNanos(99)), micros(maxNanos()), maxDepth);
+      }
+
+      private static long micros(long nanos) {
+         return TimeUnit.NANOSECONDS.toMicros(nanos);
+      }
+   }
+}
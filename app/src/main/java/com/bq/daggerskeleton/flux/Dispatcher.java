@@ -3,16 +3,33 @@ package com.bq.daggerskeleton.flux;
 
 import android.os.Handler;
 import android.os.Looper;
+import android.view.Choreographer;
+import android.support.annotation.Nullable;
 
 import org.jetbrains.annotations.TestOnly;
 
-import java.text.DecimalFormat;
+import java.lang.reflect.Constructor;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.TreeSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import io.reactivex.BackpressureOverflowStrategy;
+import io.reactivex.BackpressureStrategy;
 import io.reactivex.Flowable;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.disposables.Disposables;
 import io.reactivex.functions.Consumer;
-import io.reactivex.processors.PublishProcessor;
 import timber.log.Timber;
 
 public class Dispatcher {
@@ -21,12 +38,58 @@ public class Dispatcher {
    public static final int HIGH_PRIORITY = 25;
    public static final int DEFAULT_PRIORITY = 50;
    public static final int LOW_PRIORITY = 75;
-   public static final int VERY_LOW_PRIORITY = 50;
+   public static final int VERY_LOW_PRIORITY = 100;
 
-   private static final HashMap<Class<? extends Action>, TreeSet<Subscription<? extends Action>>> dispatchMap = new HashMap<>();
+   public static final int DEFAULT_OVERFLOW_CAPACITY = 16;
+
+   private static final Subscription[] NO_SUBSCRIPTIONS = new Subscription[0];
+
+   /**
+    * Subscriptions as registered, keyed by the subscribed type. That type can be a concrete
+    * action, a base class or an interface.
+    */
+   private static final IdentityHashMap<Class<?>, Subscription[]> subscriptionMap = new IdentityHashMap<>();
+
+   /**
+    * Resolved subscriptions for every concrete action class dispatched so far, including the ones
+    * subscribed to any of its supertypes, sorted by priority and then by subscription order.
+    * Arrays are never modified once published, so {@link #dispatch(Action)} can walk them
+    * without iterators or allocations. Cleared every time the subscriptions change.
+    */
+   private static final IdentityHashMap<Class<?>, Resolved> dispatchMap = new IdentityHashMap<>();
+   private static long nextSubscriptionOrder = 0;
+   private static final HashMap<Class<?>, Constructor<?>> routerConstructors = new HashMap<>();
+
+   private static int batchDepth = 0;
+   /**
+    * In creation order, that is also a topological order since stores can only depend on stores
+    * created before them.
+    */
+   private static DerivedStore<?>[] derivedStores = new DerivedStore<?>[0];
+   private static boolean propagating = false;
+   private static boolean propagateAgain = false;
+   private static final ArrayList<Store<?>> batchedStores = new ArrayList<>();
    private static final Handler uiHandler = new Handler();
-   private static final long startTime = System.currentTimeMillis();
-   private static long lastActionTime = System.currentTimeMillis();
+   private static final ActionQueue pendingActions = new ActionQueue();
+   private static final Runnable drainPendingActions = Dispatcher::drainPendingActions;
+   private static final Choreographer.FrameCallback drainPendingActionsOnFrame = frameTimeNanos -> drainPendingActions();
+   @Nullable private static volatile Choreographer drainChoreographer = null;
+   private static TraceSink[] traceSinks = new TraceSink[0];
+   /**
+    * Nested dispatches complete before the one that dispatched them, they wait here until the
+    * outer one completes so sinks see every action in the order it was dispatched.
+    */
+   private static final ArrayList<PendingTrace> pendingTraces = new ArrayList<>();
+   private static long traceSequence = 0;
+   @Nullable private static DispatchStats stats = null;
+   @Nullable private static SlowSubscriberPolicy slowSubscriberPolicy = null;
+   private static final ArrayList<Subscription> slowSubscriptions = new ArrayList<>();
+   @Nullable private static Mailbox demotedMailbox = null;
+   private static int dispatchDepth = 0;
+   @Nullable private static ArrayDeque<Action> nestedActions = null;
+   private static int nestedActionLimit = 0;
+   private static int nestedActionCount = 0;
+   private static int maxNestedQueueLength = 0;
 
    private Dispatcher() {
       //No instances
@@ -34,71 +97,799 @@ public class Dispatcher {
 
    public static void dispatch(Action action) {
       ensureUiThread();
-      long now = System.currentTimeMillis();
-      long diff = now - lastActionTime;
-      Timber.i("Action - %5d [%3d] -> %s", now - startTime, (diff > 999 ? 999 : diff), action);
-      TreeSet<Subscription<? extends Action>> set = dispatchMap.get(action.getClass());
-      if (set != null) {
-         for (Subscription<? extends Action> subscription : set) {
-            try {
-               subscription.consumer.accept(action);
-            } catch (Exception e) {
-               Timber.e(e);
-               throw new RuntimeException(e);
+      if (nestedActions == null) {
+         dispatchNow(action, dispatchDepth > 0 || propagating);
+      } else if (dispatchDepth > 0) {
+         queueNestedAction(action);
+         return;
+      } else {
+         dispatchQueued(action, nestedActions);
+      }
+      if (dispatchDepth == 0) propagateDerivedStores();
+   }
+
+   /**
+    * @param nested <code>true</code> if the action is dispatched by a subscription, directly or from
+    *               a derived store, so it will be dispatched again replaying its parent.
+    */
+   private static void dispatchNow(Action action, boolean nested) {
+      TraceSink[] sinks = traceSinks;
+      DispatchStats stats = Dispatcher.stats;
+      SlowSubscriberPolicy policy = slowSubscriberPolicy;
+      long start = sinks.length == 0 && stats == null ? 0 : System.nanoTime();
+      long sequence = sinks.length == 0 ? 0 : traceSequence++;
+      Resolved resolved = dispatchMap.get(action.getClass());
+      if (resolved == null) {
+         resolved = resolveSubscriptions(action.getClass());
+         dispatchMap.put(action.getClass(), resolved);
+      }
+      Subscription[] subscriptions = resolved.subscriptions(action);
+
+      int depth = ++dispatchDepth;
+      try {
+         if (stats == null && policy == null) {
+            for (int i = 0; i < subscriptions.length; i++) {
+               deliver(subscriptions[i], action);
+            }
+         } else {
+            for (int i = 0; i < subscriptions.length; i++) {
+               Subscription subscription = subscriptions[i];
+               long subscriptionStart = System.nanoTime();
+               deliver(subscription, action);
+               long subscriptionNanos = System.nanoTime() - subscriptionStart;
+               if (stats != null) subscription.stats(stats).record(subscriptionNanos, depth);
+               if (policy != null && subscription.mailbox == null) {
+                  checkBudget(policy, subscription, subscriptionNanos);
+               }
+            }
+         }
+      } finally {
+         dispatchDepth--;
+      }
+
+      if (start != 0) {
+         long duration = System.nanoTime() - start;
+         if (stats != null) stats.actionEntry(action.getClass()).record(duration, depth);
+         if (sinks.length > 0) trace(sinks, action, nested, sequence, start, duration);
+      }
+   }
+
+   private static void trace(TraceSink[] sinks, Action action, boolean nested, long sequence, long start,
+                             long duration) {
+      if (dispatchDepth == 0 && pendingTraces.isEmpty()) {
+         for (int i = 0; i < sinks.length; i++) {
+            sinks[i].onDispatched(action, nested, start, duration);
+         }
+         return;
+      }
+      pendingTraces.add(new PendingTrace(action, nested, sequence, start, duration));
+      if (dispatchDepth > 0) return;
+
+      Collections.sort(pendingTraces, (a, b) -> Long.compare(a.sequence, b.sequence));
+      try {
+         for (PendingTrace trace : pendingTraces) {
+            for (int i = 0; i < sinks.length; i++) {
+               sinks[i].onDispatched(trace.action, trace.nested, trace.start, trace.duration);
+            }
+         }
+      } finally {
+         pendingTraces.clear();
+      }
+   }
+
+   private static void queueNestedAction(Action action) {
+      //Counts every nested action since the outer dispatch, so a chain of actions dispatching the next one also ends
+      if (++nestedActionCount > nestedActionLimit) {
+         throw new IllegalStateException("Over " + nestedActionLimit + " nested actions dispatched from a single "
+               + "dispatch, last one: " + action);
+      }
+      nestedActions.add(action);
+      maxNestedQueueLength = Math.max(maxNestedQueueLength, nestedActions.size());
+   }
+
+   private static void dispatchQueued(Action action, ArrayDeque<Action> queue) {
+      try {
+         dispatchNow(action, propagating);
+         Action nested;
+         while ((nested = queue.poll()) != null) {
+            dispatchNow(nested, true);
+         }
+      } finally {
+         queue.clear(); //Drop whatever was left if a subscription failed
+         nestedActionCount = 0;
+      }
+   }
+
+   /**
+    * Queue actions dispatched from a subscription instead of dispatching them right away, once the
+    * current dispatch completes they are dispatched in the order they were queued. Every
+    * subscription sees one action at a time and the stack stays flat.
+    *
+    * @param limit Maximum nested actions dispatched from a single outer dispatch, including the ones
+    *              dispatched by nested actions. Going over it throws an {@link IllegalStateException}.
+    * @see #maxNestedQueueLength()
+    */
+   public static void enableNestedDispatchQueue(int limit) {
+      ensureUiThread();
+      if (limit < 1) throw new IllegalArgumentException("Limit must be positive, was " + limit);
+      if (dispatchDepth > 0) throw new IllegalStateException("Can't change nested dispatch mode while dispatching");
+      if (nestedActions == null) {
+         nestedActions = new ArrayDeque<>();
+         maxNestedQueueLength = 0;
+      }
+      nestedActionLimit = limit;
+   }
+
+   /**
+    * Go back to dispatching nested actions recursively, the default.
+    */
+   public static void disableNestedDispatchQueue() {
+      ensureUiThread();
+      if (dispatchDepth > 0) throw new IllegalStateException("Can't change nested dispatch mode while dispatching");
+      nestedActions = null;
+   }
+
+   /**
+    * @return Longest the nested dispatch queue has been since enabled.
+    */
+   public static int maxNestedQueueLength() {
+      return maxNestedQueueLength;
+   }
+
+   /**
+    * @return Disposable that stops propagating to the store, see {@link DerivedStore#dispose()}.
+    */
+   static Disposable addDerivedStore(DerivedStore<?> store) {
+      ensureUiThread();
+      DerivedStore<?>[] updated = Arrays.copyOf(derivedStores, derivedStores.length + 1);
+      updated[derivedStores.length] = store;
+      derivedStores = updated;
+      return Disposables.fromAction(() -> removeDerivedStore(store));
+   }
+
+   private static void removeDerivedStore(DerivedStore<?> store) {
+      ensureUiThread();
+      ArrayList<DerivedStore<?>> remaining = new ArrayList<>(Arrays.asList(derivedStores));
+      remaining.remove(store);
+      derivedStores = remaining.toArray(new DerivedStore<?>[remaining.size()]);
+   }
+
+   /**
+    * Bring every derived store up to date, in topological order. Actions dispatched by their
+    * subscribers start another pass once this one ends instead of propagating recursively.
+    */
+   static void propagateDerivedStores() {
+      if (derivedStores.length == 0) return;
+      if (propagating) {
+         propagateAgain = true;
+         return;
+      }
+      propagating = true;
+      try {
+         do {
+            propagateAgain = false;
+            DerivedStore<?>[] stores = derivedStores;
+            for (int i = 0; i < stores.length; i++) {
+               stores[i].propagate();
             }
+         } while (propagateAgain);
+      } finally {
+         propagating = false;
+      }
+   }
+
+   private static void deliver(Subscription subscription, Action action) {
+      if (subscription.disposed) return; //Disposed from another thread, removal still pending
+      if (subscription.mailbox != null) {
+         subscription.mailbox.deliver(subscription.consumer, action);
+         return;
+      }
+      try {
+         subscription.consumer.accept(action);
+      } catch (Exception e) {
+         Timber.e(e);
+         throw new RuntimeException(e);
+      }
+   }
+
+   private static void checkBudget(SlowSubscriberPolicy policy, Subscription subscription, long nanos) {
+      boolean overBudget = nanos > policy.budgetNanos;
+      subscription.budgetHistory = (subscription.budgetHistory << 1) | (overBudget ? 1 : 0);
+      if (!overBudget) return;
+      subscription.maxNanos = Math.max(subscription.maxNanos, nanos);
+      if (subscription.slow || !policy.isSlow(subscription.budgetHistory)) return;
+
+      subscription.slow = true;
+      slowSubscriptions.add(subscription);
+      if (!policy.demote) {
+         Timber.w("Slow subscription %s, over %s", subscription, policy);
+      } else if (subscription.consumer instanceof Store.Intercepted) {
+         //Moving one reducer alone would race with the rest of its store
+         Store<?> store = ((Store<?>.Intercepted<?>) subscription.consumer).store();
+         demoteStore(store);
+         Timber.w("Slow subscription %s, over %s, demoted with the rest of %s",
+               subscription, policy, store.getClass().getSimpleName());
+      } else {
+         if (demotedMailbox == null) demotedMailbox = new Mailbox("dispatch-demoted");
+         subscription.mailbox = demotedMailbox;
+         Timber.w("Slow subscription %s, over %s, demoted", subscription, policy);
+      }
+   }
+
+   /**
+    * Move every reducer of the store to the store mailbox. They ran in the ui thread until now, so
+    * the mailbox starts after every action they already reduced and keeps their order.
+    */
+   private static void demoteStore(Store<?> store) {
+      Mailbox mailbox = store.demote();
+      for (Subscription[] subscriptions : subscriptionMap.values()) {
+         for (Subscription subscription : subscriptions) {
+            if (subscription.mailbox == null && subscription.consumer instanceof Store.Intercepted
+                  && ((Store<?>.Intercepted<?>) subscription.consumer).store() == store) {
+               subscription.mailbox = mailbox;
+            }
+         }
+      }
+   }
+
+   /**
+    * Measure how long every subscription takes in the ui thread and flag, or demote to a
+    * background thread, the ones that keep going over budget. A slow store reducer demotes its
+    * whole store. Pass null to stop measuring, subscriptions already demoted stay in the
+    * background.
+    *
+    * @see #slowSubscriberReport()
+    */
+   public static void setSlowSubscriberPolicy(@Nullable SlowSubscriberPolicy policy) {
+      ensureUiThread();
+      slowSubscriberPolicy = policy;
+   }
+
+   /**
+    * @return Every live subscription flagged as slow, with the worst time it took.
+    */
+   public static String slowSubscriberReport() {
+      ensureUiThread();
+      StringBuilder sb = new StringBuilder();
+      sb.append("┌ Slow subscriptions");
+      if (slowSubscriberPolicy != null) sb.append(", over ").append(slowSubscriberPolicy);
+      sb.append('\n');
+      for (Subscription subscription : slowSubscriptions) {
+         sb.append("├ ").append(subscription)
+               .append(" max ").append(TimeUnit.NANOSECONDS.toMicros(subscription.maxNanos)).append(" us")
+               .append(subscription.mailbox != null ? ", demoted" : "")
+               .append('\n');
+      }
+      sb.append("└");
+      return sb.toString();
+   }
+
+   /**
+    * Start collecting latency statistics for every action type and subscription. Adds a couple
+    * of {@link System#nanoTime()} calls per subscriber to every dispatch.
+    *
+    * @return The statistics being collected, also available through {@link #stats()}.
+    */
+   public static DispatchStats enableStats() {
+      ensureUiThread();
+      if (stats == null) stats = new DispatchStats();
+      return stats;
+   }
+
+   public static void disableStats() {
+      ensureUiThread();
+      stats = null;
+   }
+
+   /**
+    * @return Statistics collected since {@link #enableStats()}, or null if disabled.
+    */
+   @Nullable
+   public static DispatchStats stats() {
+      return stats;
+   }
+
+   /**
+    * Register a sink that will be notified after every dispatch.
+    */
+   public static void addTraceSink(TraceSink sink) {
+      ensureUiThread();
+      TraceSink[] updated = new TraceSink[traceSinks.length + 1];
+      System.arraycopy(traceSinks, 0, updated, 0, traceSinks.length);
+      updated[traceSinks.length] = sink;
+      traceSinks = updated;
+   }
+
+   public static void removeTraceSink(TraceSink sink) {
+      ensureUiThread();
+      ArrayList<TraceSink> updated = new ArrayList<>();
+      Collections.addAll(updated, traceSinks);
+      updated.remove(sink);
+      traceSinks = updated.toArray(new TraceSink[updated.size()]);
+   }
+
+   /**
+    * Dispatch every action in order as a single batch, see {@link #batch(Runnable)}.
+    */
+   public static void dispatchAll(List<? extends Action> actions) {
+      ensureUiThread();
+      batchDepth++;
+      try {
+         for (int i = 0; i < actions.size(); i++) {
+            dispatch(actions.get(i));
          }
+      } finally {
+         endBatch();
+      }
+   }
+
+   /**
+    * Run a block where every dispatched action is reduced as usual, but stores only publish
+    * their final state once, when the outermost batch completes.
+    */
+   public static void batch(Runnable block) {
+      ensureUiThread();
+      batchDepth++;
+      try {
+         block.run();
+      } finally {
+         endBatch();
       }
-      lastActionTime = now;
    }
 
+   private static void endBatch() {
+      if (--batchDepth > 0) return;
+      //Emissions may dispatch new actions or change other stores, those are no longer batched
+      Store<?>[] stores = batchedStores.toArray(new Store<?>[batchedStores.size()]);
+      batchedStores.clear();
+      for (Store<?> store : stores) {
+         store.publishDeferredState();
+      }
+   }
+
+   /**
+    * @return <code>true</code> if state emissions must be deferred until the current batch ends.
+    * Only the ui thread batches.
+    */
+   static boolean isBatching() {
+      return batchDepth > 0 && Looper.myLooper() == Looper.getMainLooper();
+   }
+
+   static void deferStateEmission(Store<?> store) {
+      batchedStores.add(store);
+   }
+
+   /**
+    * Dispatch an action from any thread. Actions are queued and dispatched on the ui thread
+    * in the same order they were queued, using a single drain per burst. Queued
+    * {@link CoalescableAction}s collapse to the latest instance of their type.
+    */
    public static void dispatchOnUi(Action action) {
-      uiHandler.post(() -> dispatch(action));
+      if (pendingActions.offer(action)) {
+         Choreographer choreographer = drainChoreographer;
+         if (choreographer != null) {
+            choreographer.postFrameCallback(drainPendingActionsOnFrame);
+         } else {
+            uiHandler.post(drainPendingActions);
+         }
+      }
+   }
+
+   /**
+    * @param onFrame <code>true</code> to drain actions queued with {@link #dispatchOnUi(Action)}
+    *                on the next frame, giving coalescable actions more time to collapse.
+    *                <code>false</code>, the default, to drain as soon as the ui thread is free.
+    */
+   public static void setDrainOnFrame(boolean onFrame) {
+      ensureUiThread();
+      drainChoreographer = onFrame ? Choreographer.getInstance() : null;
+   }
+
+   private static void drainPendingActions() {
+      try {
+         pendingActions.drain(Dispatcher::dispatch);
+      } catch (Exception e) {
+         Timber.e(e);
+         throw new RuntimeException(e);
+      }
    }
 
    public static <T extends Action> Flowable<T> subscribe(Class<T> actionType) {
       return subscribe(DEFAULT_PRIORITY, actionType);
    }
 
+   /**
+    * @return A cold flowable that subscribes to the Dispatcher when subscribed and unsubscribes
+    * when cancelled. Must be subscribed from the ui thread.
+    */
    public static <T extends Action> Flowable<T> subscribe(int priority, Class<T> actionType) {
-      PublishProcessor<T> processor = PublishProcessor.create();
-      subscribe(priority, actionType, processor::onNext);
-      return processor;
+      return Flowable.create(emitter -> {
+         emitter.setDisposable(subscribe(priority, actionType, emitter::onNext));
+      }, BackpressureStrategy.MISSING);
+   }
+
+   public static <T extends Action> Flowable<T> subscribe(Class<T> actionType, OverflowStrategy overflow) {
+      return subscribe(DEFAULT_PRIORITY, actionType, overflow, DEFAULT_OVERFLOW_CAPACITY);
+   }
+
+   /**
+    * Same as {@link #subscribe(int, Class)}, but handling slow downstreams, such as the ones
+    * observing on a background scheduler, with the given strategy instead of failing with a
+    * {@link io.reactivex.exceptions.MissingBackpressureException}. Dispatching never waits for the
+    * downstream. Dropped actions are counted, see {@link #droppedActions()}.
+    *
+    * @param capacity Actions kept for the downstream, ignored for {@link OverflowStrategy#LATEST}.
+    *                 Only counts the actions the downstream didn't request yet, an
+    *                 <code>observeOn</code> requests 128 up front and buffers them on top.
+    */
+   public static <T extends Action> Flowable<T> subscribe(int priority, Class<T> actionType,
+                                                          OverflowStrategy overflow, int capacity) {
+      switch (overflow) {
+         case LATEST:
+         case DROP_OLDEST:
+            //Keeping the latest is dropping the oldest of one
+            final int bufferSize = overflow == OverflowStrategy.LATEST ? 1 : capacity;
+            return Flowable.defer(() -> {
+               AtomicLong dropped = new AtomicLong();
+               return Flowable.<T>create(emitter -> {
+                  emitter.setDisposable(subscribe(priority, actionType, emitter::onNext, dropped));
+               }, BackpressureStrategy.MISSING)
+                     .onBackpressureBuffer(bufferSize, dropped::incrementAndGet, BackpressureOverflowStrategy.DROP_OLDEST);
+            });
+         default:
+            throw new IllegalArgumentException("Unknown overflow strategy: " + overflow);
+      }
+   }
+
+   /**
+    * @return Actions dropped so far by every {@link OverflowStrategy} subscription that dropped
+    * any, by subscription.
+    */
+   public static Map<String, Long> droppedActions() {
+      ensureUiThread();
+      LinkedHashMap<String, Long> droppedActions = new LinkedHashMap<>();
+      for (Subscription[] subscriptions : subscriptionMap.values()) {
+         for (Subscription subscription : subscriptions) {
+            if (subscription.dropped != null && subscription.dropped.get() > 0) {
+               droppedActions.put(subscription.toString(), subscription.dropped.get());
+            }
+         }
+      }
+      return droppedActions;
+   }
+
+   public static <T extends Action> Disposable subscribe(Class<T> actionType, Consumer<T> consumer) {
+      return subscribe(DEFAULT_PRIORITY, actionType, consumer);
+   }
+
+   /**
+    * @return Disposable that removes the subscription, track it in plugins so it is released
+    * with the plugin, see {@link com.bq.daggerskeleton.common.SimplePlugin#track(Disposable)}.
+    */
+   public static <T extends Action> Disposable subscribe(int priority, Class<T> actionType, Consumer<T> consumer) {
+      return subscribe(priority, actionType, consumer, null);
    }
 
-   public static <T extends Action> void subscribe(Class<T> actionType, Consumer<T> consumer) {
-      subscribe(DEFAULT_PRIORITY, actionType, consumer);
+   public static <K extends Enum<K>, T extends KeyedAction<K>> Disposable subscribe(Class<T> actionType, K key,
+                                                                                     Consumer<T> consumer) {
+      return subscribe(DEFAULT_PRIORITY, actionType, key, consumer);
    }
 
-   public static <T extends Action> void subscribe(int priority, Class<T> actionType, Consumer<T> consumer) {
+   /**
+    * Subscribe only to actions whose {@link KeyedAction#key()} is the given key. Subscriptions for
+    * other keys are never called, unlike filtering inside the consumer.
+    */
+   public static <K extends Enum<K>, T extends KeyedAction<K>> Disposable subscribe(int priority, Class<T> actionType,
+                                                                                     K key, Consumer<T> consumer) {
+      if (key == null) throw new NullPointerException("key == null");
+      return subscribe(priority, actionType, key, consumer, null, null);
+   }
+
+   private static <T extends Action> Disposable subscribe(int priority, Class<T> actionType, Consumer<T> consumer,
+                                                          @Nullable AtomicLong dropped) {
+      return subscribe(priority, actionType, null, consumer, dropped, null);
+   }
+
+   /**
+    * @param mailbox Store event loop the consumer runs in, or null to run it while dispatching.
+    */
+   static <T extends Action> Disposable subscribe(int priority, Class<T> actionType, @Nullable Enum<?> key,
+                                                  Consumer<T> consumer, @Nullable AtomicLong dropped,
+                                                  @Nullable Mailbox mailbox) {
+      ensureUiThread();
+      Subscription[] current = subscriptionMap.get(actionType);
+      if (current == null) current = NO_SUBSCRIPTIONS;
+
+      Subscription[] updated = new Subscription[current.length + 1];
+      System.arraycopy(current, 0, updated, 0, current.length);
+      Subscription subscription = new Subscription(actionType, key, priority, nextSubscriptionOrder++, consumer, dropped,
+            mailbox);
+      updated[current.length] = subscription;
+      subscriptionMap.put(actionType, updated);
+      dispatchMap.clear();
+      return subscription;
+   }
+
+   /**
+    * Subscribe every {@link OnAction} method of the target through its generated
+    * {@link ActionRouter}.
+    *
+    * @return Disposable that removes all the target subscriptions.
+    */
+   public static Disposable route(Object target) {
+      return route(target, null, null);
+   }
+
+   /**
+    * @param store Store whose interceptors see the routed actions.
+    */
+   static Disposable route(Object target, @Nullable Store<?> store, @Nullable Mailbox mailbox) {
       ensureUiThread();
-      TreeSet<Subscription<? extends Action>> set = dispatchMap.get(actionType);
-      if (set == null) {
-         set = new TreeSet<>((a, b) -> Integer.compare(a.priority, b.priority));
-         dispatchMap.put(actionType, set);
+      ActionRouter router = createRouter(target);
+      CompositeDisposable disposable = new CompositeDisposable();
+      for (int id = 0; id < router.routeCount(); id++) {
+         @SuppressWarnings("unchecked")
+         Class<Action> actionType = (Class<Action>) router.actionType(id);
+         Consumer<Action> route = new Route(router, id);
+         if (store != null) route = store.intercept(route);
+         disposable.add(subscribe(router.priority(id), actionType, null, route, null, mailbox));
+      }
+      return disposable;
+   }
+
+   private static ActionRouter createRouter(Object target) {
+      Class<?> targetClass = target.getClass();
+      try {
+         Constructor<?> constructor = routerConstructors.get(targetClass);
+         if (constructor == null) {
+            Class<?> routerClass = Class.forName(targetClass.getName() + "_ActionRouter");
+            constructor = routerClass.getConstructor(targetClass);
+            routerConstructors.put(targetClass, constructor);
+         }
+         return (ActionRouter) constructor.newInstance(target);
+      } catch (ClassNotFoundException e) {
+         throw new IllegalStateException("No generated router for " + targetClass.getName()
+               + ", does it have any @OnAction method?", e);
+      } catch (Exception e) {
+         throw new RuntimeException("Unable to create router for " + targetClass.getName(), e);
+      }
+   }
+
+   private static void unsubscribe(Subscription subscription) {
+      Subscription[] current = subscriptionMap.get(subscription.actionType);
+      if (current == null) return;
+      int index = -1;
+      for (int i = 0; i < current.length; i++) {
+         if (current[i] == subscription) index = i;
+      }
+      if (index == -1) return;
+
+      if (current.length == 1) {
+         subscriptionMap.remove(subscription.actionType);
+      } else {
+         Subscription[] updated = new Subscription[current.length - 1];
+         System.arraycopy(current, 0, updated, 0, index);
+         System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+         subscriptionMap.put(subscription.actionType, updated);
+      }
+      dispatchMap.clear();
+      if (subscription.stats != null) subscription.stats.owner.removeSubscriptionEntry(subscription.stats);
+      if (subscription.slow) slowSubscriptions.remove(subscription);
+   }
+
+   /**
+    * Merge the subscriptions of the action class and all of its superclasses and interfaces.
+    * Keyed subscriptions are indexed by key ordinal, each index entry already merged with the
+    * unkeyed ones. Runs once per action class until the subscriptions change.
+    */
+   private static Resolved resolveSubscriptions(Class<?> actionClass) {
+      Set<Class<?>> types = new LinkedHashSet<>();
+      collectTypes(actionClass, types);
+
+      ArrayList<Subscription> resolved = new ArrayList<>();
+      for (Class<?> type : types) {
+         Subscription[] subscriptions = subscriptionMap.get(type);
+         if (subscriptions != null) Collections.addAll(resolved, subscriptions);
+      }
+      if (resolved.isEmpty()) return Resolved.EMPTY;
+
+      Collections.sort(resolved, (a, b) -> {
+         if (a.priority != b.priority) return Integer.compare(a.priority, b.priority);
+         return Long.compare(a.order, b.order);
+      });
+
+      ArrayList<Subscription> unkeyed = new ArrayList<>();
+      Enum<?>[] keys = null;
+      for (Subscription subscription : resolved) {
+         if (subscription.key == null) unkeyed.add(subscription);
+         else if (keys == null) keys = subscription.key.getDeclaringClass().getEnumConstants();
+      }
+      if (keys == null) return new Resolved(toArray(unkeyed), null);
+
+      Subscription[][] byKey = new Subscription[keys.length][];
+      ArrayList<Subscription> keyed = new ArrayList<>();
+      for (Enum<?> key : keys) {
+         keyed.clear();
+         for (Subscription subscription : resolved) {
+            if (subscription.key == null || subscription.key == key) keyed.add(subscription);
+         }
+         byKey[key.ordinal()] = toArray(keyed);
+      }
+      return new Resolved(toArray(unkeyed), byKey);
+   }
+
+   private static Subscription[] toArray(List<Subscription> subscriptions) {
+      if (subscriptions.isEmpty()) return NO_SUBSCRIPTIONS;
+      return subscriptions.toArray(new Subscription[subscriptions.size()]);
+   }
+
+   private static void collectTypes(Class<?> type, Set<Class<?>> types) {
+      if (type == null || !types.add(type)) return;
+      collectTypes(type.getSuperclass(), types);
+      for (Class<?> implemented : type.getInterfaces()) {
+         collectTypes(implemented, types);
       }
-      set.add(new Subscription<>(priority, consumer));
+   }
+
+   @TestOnly
+   static int subscriberCount() {
+      int count = 0;
+      for (Subscription[] subscriptions : subscriptionMap.values()) {
+         count += subscriptions.length;
+      }
+      return count;
    }
 
    @TestOnly
    static void clearSubscriptions() {
+      subscriptionMap.clear();
       dispatchMap.clear();
+      batchedStores.clear();
+      batchDepth = 0;
+      traceSinks = new TraceSink[0];
+      pendingTraces.clear();
+      stats = null;
+      slowSubscriberPolicy = null;
+      slowSubscriptions.clear();
+      dispatchDepth = 0;
+      nestedActions = null;
+      nestedActionCount = 0;
+      derivedStores = new DerivedStore<?>[0];
+      propagating = false;
+      maxNestedQueueLength = 0;
    }
 
    private static void ensureUiThread() {
       if (Looper.myLooper() != Looper.getMainLooper()) {
          throw new IllegalStateException("Dispatcher is not thread safe " +
-               "and can only be accessed from Ui thread.");
+               "and can only be accessed from Ui thread, use dispatchOnUi from other threads.");
+      }
+   }
+
+   private static final class Resolved {
+      static final Resolved EMPTY = new Resolved(NO_SUBSCRIPTIONS, null);
+
+      final Subscription[] unkeyed;
+      /**
+       * Subscriptions for every key ordinal, null if there are no keyed subscriptions.
+       */
+      @Nullable final Subscription[][] byKey;
+
+      Resolved(Subscription[] unkeyed, @Nullable Subscription[][] byKey) {
+         this.unkeyed = unkeyed;
+         this.byKey = byKey;
+      }
+
+      Subscription[] subscriptions(Action action) {
+         if (byKey == null) return unkeyed;
+         Enum<?> key = ((KeyedAction<?>) action).key();
+         return key == null ? unkeyed : byKey[key.ordinal()];
       }
    }
 
-   private static final class Subscription<T extends Action> {
+   private static final class Subscription implements Disposable {
+      final Class<?> actionType;
+      @Nullable final Enum<?> key;
       final int priority;
+      final long order;
       final Consumer<Action> consumer;
+      @Nullable final AtomicLong dropped;
+      /**
+       * Event loop the consumer runs in, null to run while dispatching. Only changes when demoted.
+       */
+      @Nullable Mailbox mailbox;
+      @Nullable DispatchStats.Entry stats;
+      /** Bit set for every recent dispatch that went over budget, latest in the lowest bit. */
+      long budgetHistory;
+      long maxNanos;
+      boolean slow;
+      volatile boolean disposed = false;
 
       @SuppressWarnings("unchecked")
-      private Subscription(int priority, Consumer<T> consumer) {
+      private <T extends Action> Subscription(Class<?> actionType, @Nullable Enum<?> key, int priority, long order,
+                                              Consumer<T> consumer, @Nullable AtomicLong dropped,
+                                              @Nullable Mailbox mailbox) {
+         this.actionType = actionType;
+         this.key = key;
          this.priority = priority;
+         this.order = order;
          this.consumer = (Consumer<Action>) consumer;
+         this.dropped = dropped;
+         this.mailbox = mailbox;
+      }
+
+      @Override public void dispose() {
+         if (disposed) return;
+         disposed = true;
+         if (Looper.myLooper() == Looper.getMainLooper()) {
+            unsubscribe(this);
+         } else {
+            uiHandler.post(() -> unsubscribe(this));
+         }
+      }
+
+      @Override public boolean isDisposed() {
+         return disposed;
+      }
+
+      DispatchStats.Entry stats(DispatchStats owner) {
+         if (stats == null || stats.owner != owner) {
+            stats = owner.newSubscriptionEntry(toString());
+         }
+         return stats;
+      }
+
+      @Override public String toString() {
+         String name = nameOf(consumer);
+         String type = key == null ? actionType.getSimpleName() : actionType.getSimpleName() + "[" + key + "]";
+         return type + " -> " + name + " [" + priority + "]";
+      }
+   }
+
+   /**
+    * @return Name of a subscribed consumer in reports, reports add the action type: the generated
+    * router and handler id for routes, the store class for store subscriptions and the class
+    * declaring the consumer for anything else. Two lambdas of the same class get the same name,
+    * the generated lambda class names change between builds and runs.
+    */
+   static String nameOf(Object consumer) {
+      if (consumer instanceof Route || consumer instanceof Store.Intercepted) return consumer.toString();
+      String name = consumer.getClass().getName();
+      int lambda = name.indexOf("$$Lambda");
+      return lambda == -1 ? name : name.substring(0, lambda);
+   }
+
+   private static final class PendingTrace {
+      final Action action;
+      final boolean nested;
+      final long sequence;
+      final long start;
+      final long duration;
+
+      PendingTrace(Action action, boolean nested, long sequence, long start, long duration) {
+         this.action = action;
+         this.nested = nested;
+         this.sequence = sequence;
+         this.start = start;
+         this.duration = duration;
+      }
+   }
+
+   static final class Route implements Consumer<Action> {
+      final ActionRouter router;
+      final int id;
+
+      Route(ActionRouter router, int id) {
+         this.router = router;
+         this.id = id;
+      }
+
+      @Override public void accept(Action action) throws Exception {
+         router.route(id, action);
+      }
+
+      @Override public String toString() {
+         return router.getClass().getName() + "#" + id;
       }
    }
 }
@@ -0,0 +1,43 @@
+package com.bq.daggerskeleton.flux;
+
+/**
+ * Base for store states that never change once created. Every field is final and reducers derive
+ * new states with <code>withX</code> methods that copy field references, sharing anything
+ * unchanged with the previous state, and return the same instance when nothing changed, so
+ * {@link Store#setState(Object)} short-circuits on a reference check.
+ * <p>
+ * The hash is computed once and compared before any field, so two different states are almost
+ * always told apart in constant time.
+ */
+public abstract class ImmutableState {
+
+   private int hash = 0;
+
+   /**
+    * @return Hash of every field, as in {@link Object#hashCode()}.
+    */
+   protected abstract int computeHashCode();
+
+   /**
+    * @param other State of the same class as this one.
+    * @return <code>true</code> if every field is equal.
+    */
+   protected abstract boolean contentEquals(ImmutableState other);
+
+   @Override public final int hashCode() {
+      int h = hash;
+      if (h == 0) {
+         h = computeHashCode();
+         if (h == 0) h = 1; //Keep 0 for not computed
+         hash = h;
+      }
+      return h;
+   }
+
+   @Override public final boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || o.getClass() != getClass()) return false;
+      ImmutableState other = (ImmutableState) o;
+      return hashCode() == other.hashCode() && contentEquals(other);
+   }
+}
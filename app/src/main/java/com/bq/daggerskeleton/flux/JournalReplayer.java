@@ -0,0 +1,112 @@
+package com.bq.daggerskeleton.flux;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Feeds a journal written by {@link ActionJournal} back through the {@link Dispatcher}.
+ * <p>
+ * Replay is meant for a fresh store graph: create the stores that should see the actions before
+ * replaying. Actions recorded as nested are skipped, the subscribers that dispatched them do it
+ * again when their parent is replayed. Must be called from the thread the Dispatcher runs on.
+ */
+public final class JournalReplayer {
+
+   private final ActionCodecs codecs;
+
+   public JournalReplayer(ActionCodecs codecs) {
+      this.codecs = codecs;
+   }
+
+   /**
+    * @param realTime <code>true</code> to keep the original spacing between actions,
+    *                 <code>false</code> to dispatch them as fast as possible.
+    */
+   public Result replay(File file, boolean realTime) throws IOException {
+      ByteBuffer buffer = map(file);
+      if (buffer.remaining() < 6 || buffer.getInt() != ActionJournal.MAGIC) {
+         throw new IOException("Not an action journal: " + file);
+      }
+      short version = buffer.getShort();
+      if (version != ActionJournal.VERSION) {
+         throw new IOException("Unsupported journal version: " + version);
+      }
+
+      Result result = new Result();
+      long firstRecordedStart = 0;
+      long replayStart = System.nanoTime();
+
+      while (buffer.remaining() >= ActionJournal.ENTRY_HEADER_SIZE) {
+         short id = buffer.getShort();
+         if (id == ActionJournal.END_OF_JOURNAL) break;
+         byte flags = buffer.get();
+         long recordedStart = buffer.getLong();
+         long recordedDuration = buffer.getLong();
+         int length = buffer.getShort() & 0xFFFF;
+         int payloadEnd = buffer.position() + length;
+         if ((flags & ActionJournal.FLAG_NESTED) != 0) {
+            buffer.position(payloadEnd);
+            result.nested++;
+            continue;
+         }
+
+         ActionCodecs.Registration registration = codecs.forId(id);
+         if (registration == null) {
+            throw new IOException("No codec registered for id " + id);
+         }
+         Action action = registration.codec.decode(buffer);
+         buffer.position(payloadEnd);
+
+         if (result.actions == 0) firstRecordedStart = recordedStart;
+         if (realTime) {
+            long wait = (recordedStart - firstRecordedStart) - (System.nanoTime() - replayStart);
+            if (wait > 0) LockSupport.parkNanos(wait);
+         }
+
+         long start = System.nanoTime();
+         Dispatcher.dispatch(action);
+         result.dispatchNanos += System.nanoTime() - start;
+         result.recordedDispatchNanos += recordedDuration;
+         result.actions++;
+      }
+      result.elapsedNanos = System.nanoTime() - replayStart;
+      return result;
+   }
+
+   private static ByteBuffer map(File file) throws IOException {
+      RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+      try {
+         FileChannel channel = randomAccessFile.getChannel();
+         return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      } finally {
+         randomAccessFile.close();
+      }
+   }
+
+   public static final class Result {
+      /** Actions replayed. */
+      public int actions;
+      /** Nested actions skipped, dispatched again by the replayed ones. */
+      public int nested;
+      /** Time spent in {@link Dispatcher#dispatch(Action)} during the replay. */
+      public long dispatchNanos;
+      /** Time the same actions took to dispatch when they were recorded. */
+      public long recordedDispatchNanos;
+      /** Wall time of the whole replay, including waits when replaying in real time. */
+      public long elapsedNanos;
+
+      @Override public String toString() {
+         return "Result{" +
+               "actions=" + actions +
+               ", nested=" + nested +
+               ", dispatchNanos=" + dispatchNanos +
+               ", recordedDispatchNanos=" + recordedDispatchNanos +
+               ", elapsedNanos=" + elapsedNanos +
+               '}';
+      }
+   }
+}
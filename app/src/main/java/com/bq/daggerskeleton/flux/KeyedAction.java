@@ -0,0 +1,14 @@
+package com.bq.daggerskeleton.flux;
+
+/**
+ * Action discriminated by an enum key. Subscriptions can ask for a single key with
+ * {@link Dispatcher#subscribe(Class, Enum, io.reactivex.functions.Consumer)} and the Dispatcher
+ * will only call them for actions with that key, without invoking the rest.
+ */
+public interface KeyedAction<K extends Enum<K>> extends Action {
+
+   /**
+    * @return The key of this action, constant for the lifetime of the instance.
+    */
+   K key();
+}
@@ -0,0 +1,94 @@
+package com.bq.daggerskeleton.flux;
+
+/**
+ * Log-linear histogram of nanosecond latencies, in the spirit of HdrHistogram but fixed size
+ * and allocation free after creation. Every power of two is split in {@link #SUB_BUCKETS}
+ * buckets, so reported values are within ~12% of the recorded ones. Values over ~18 minutes
+ * are clamped to the last bucket.
+ * <p>
+ * Not thread safe, record from a single thread.
+ */
+public final class LatencyHistogram {
+
+   private static final int SUB_BUCKET_BITS = 3;
+   private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+   private static final int MAX_MAGNITUDE = 40;
+   private static final int BUCKET_COUNT = (MAX_MAGNITUDE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+   private final long[] counts = new long[BUCKET_COUNT];
+   private long count = 0;
+   private long total = 0;
+   private long max = 0;
+
+   public void record(long nanos) {
+      if (nanos < 0) nanos = 0;
+      counts[indexOf(nanos)]++;
+      count++;
+      total += nanos;
+      if (nanos > max) max = nanos;
+   }
+
+   public long count() {
+      return count;
+   }
+
+   public long total() {
+      return total;
+   }
+
+   public long max() {
+      return max;
+   }
+
+   public long mean() {
+      return count == 0 ? 0 : total / count;
+   }
+
+   /**
+    * @param percentile In the <code>[0, 100]</code> range.
+    * @return Upper bound of the bucket holding the percentile, never over {@link #max()}.
+    */
+   public long percentile(double percentile) {
+      if (count == 0) return 0;
+      long target = Math.max(1, (long) Math.ceil(count * percentile / 100d));
+      long accumulated = 0;
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+         accumulated += counts[i];
+         if (accumulated >= target) return Math.min(max, highestValueAt(i));
+      }
+      return max;
+   }
+
+   /**
+    * Record every value of another histogram.
+    */
+   public void add(LatencyHistogram other) {
+      for (int i = 0; i < BUCKET_COUNT; i++) counts[i] += other.counts[i];
+      count += other.count;
+      total += other.total;
+      if (other.max > max) max = other.max;
+   }
+
+   public void reset() {
+      for (int i = 0; i < BUCKET_COUNT; i++) counts[i] = 0;
+      count = 0;
+      total = 0;
+      max = 0;
+   }
+
+   private static int indexOf(long value) {
+      if (value < SUB_BUCKETS) return (int) value;
+      int magnitude = 63 - Long.numberOfLeadingZeros(value);
+      if (magnitude >= MAX_MAGNITUDE) return BUCKET_COUNT - 1;
+      int subBucket = (int) ((value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+      return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+   }
+
+   private static long highestValueAt(int index) {
+      int group = index / SUB_BUCKETS;
+      int subBucket = index % SUB_BUCKETS;
+      if (group == 0) return subBucket;
+      int shift = group - 1;
+      return ((long) (SUB_BUCKETS + subBucket + 1) << shift) - 1;
+   }
+}
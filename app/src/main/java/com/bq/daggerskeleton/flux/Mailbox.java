@@ -0,0 +1,107 @@
+package com.bq.daggerskeleton.flux;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+
+import org.jetbrains.annotations.TestOnly;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import io.reactivex.functions.Consumer;
+import timber.log.Timber;
+
+/**
+ * Single threaded event loop that runs the reducers of one {@link Store}, in the same order the
+ * Dispatcher delivered their actions. See {@link Store#setMailboxesEnabled(boolean)}.
+ */
+final class Mailbox {
+
+   /**
+    * Created on first use, the class may be loaded from any thread, with or without a looper.
+    */
+   @Nullable private static volatile Executor uiExecutor = null;
+   /**
+    * Until a mailbox exists no code runs in one, checked before {@link #isMailboxThread()}.
+    */
+   static volatile boolean anyCreated = false;
+
+   private final ExecutorService executor;
+   private volatile Thread thread;
+
+   Mailbox(String name) {
+      anyCreated = true;
+      executor = Executors.newSingleThreadExecutor(runnable -> {
+         thread = new LoopThread(runnable, name);
+         return thread;
+      });
+   }
+
+   void deliver(Consumer<Action> consumer, Action action) {
+      executor.execute(() -> {
+         try {
+            consumer.accept(action);
+         } catch (Exception e) {
+            Timber.e(e);
+            //Crash like a reducer running in the ui thread would
+            uiExecutor().execute(() -> {
+               throw new RuntimeException(e);
+            });
+         }
+      });
+   }
+
+   void execute(Runnable block) {
+      if (isCurrentThread()) {
+         block.run();
+      } else {
+         executor.execute(block);
+      }
+   }
+
+   boolean isCurrentThread() {
+      return Thread.currentThread() == thread;
+   }
+
+   /**
+    * @return <code>true</code> if running in any mailbox, where state emissions must be handed
+    * back to the ui thread.
+    */
+   static boolean isMailboxThread() {
+      return Thread.currentThread() instanceof LoopThread;
+   }
+
+   /**
+    * Hand a state emission back to the ui thread.
+    */
+   static void publish(Runnable emission) {
+      uiExecutor().execute(emission);
+   }
+
+   private static Executor uiExecutor() {
+      Executor executor = uiExecutor;
+      if (executor == null) {
+         executor = new Handler(Looper.getMainLooper())::post;
+         uiExecutor = executor;
+      }
+      return executor;
+   }
+
+   /**
+    * Replace the ui thread for JVM tests, where there is no looper to post to. Null goes back to
+    * the main looper.
+    */
+   @TestOnly
+   static void setUiExecutor(@Nullable Executor executor) {
+      uiExecutor = executor;
+   }
+
+   private static final class LoopThread extends Thread {
+      LoopThread(Runnable runnable, String name) {
+         super(runnable, name);
+         setDaemon(true);
+      }
+   }
+}
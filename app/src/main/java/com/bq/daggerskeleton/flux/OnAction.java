@@ -0,0 +1,18 @@
+package com.bq.daggerskeleton.flux;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a {@link Store} method as the handler of the action type it takes as its only parameter.
+ * An annotation processor generates the store's {@link ActionRouter}, register it calling
+ * {@link Dispatcher#route(Object)} from the store constructor. Handlers can't throw checked
+ * exceptions.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.METHOD)
+public @interface OnAction {
+   int priority() default Dispatcher.DEFAULT_PRIORITY;
+}
@@ -0,0 +1,20 @@
+package com.bq.daggerskeleton.flux;
+
+/**
+ * What a {@link Dispatcher#subscribe(int, Class, OverflowStrategy, int)} flowable does when its
+ * downstream does not request actions as fast as they are dispatched. There is no strategy that
+ * waits for the downstream, the Dispatcher runs in the ui thread and must never block.
+ * <p>
+ * The buffer only holds actions the downstream didn't request yet. Operators that request ahead,
+ * like <code>observeOn</code> with its 128 actions, keep their own buffer on top of it.
+ */
+public enum OverflowStrategy {
+   /**
+    * Keep only the latest action, older undelivered ones are dropped.
+    */
+   LATEST,
+   /**
+    * Keep up to <code>capacity</code> actions, dropping the oldest one when full.
+    */
+   DROP_OLDEST,
+}
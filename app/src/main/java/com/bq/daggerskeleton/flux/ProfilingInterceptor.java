@@ -0,0 +1,118 @@
+package com.bq.daggerskeleton.flux;
+
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aggregates reducer time per store class and action type. Reducers running in mailboxes record
+ * concurrently, so every record takes a lock, uncontended when mailboxes are disabled.
+ */
+public final class ProfilingInterceptor implements StoreInterceptor {
+
+   private final IdentityHashMap<Class<?>, IdentityHashMap<Class<?>, Entry>> byStore = new IdentityHashMap<>();
+
+   @Override public synchronized void onTransition(Store<?> store, @Nullable Action action, Object previous,
+                                                   Object next, long reducerNanos) {
+      if (action == null) return; //Not made by a reducer
+      IdentityHashMap<Class<?>, Entry> byAction = byStore.get(store.getClass());
+      if (byAction == null) {
+         byAction = new IdentityHashMap<>();
+         byStore.put(store.getClass(), byAction);
+      }
+      Entry entry = byAction.get(action.getClass());
+      if (entry == null) {
+         entry = new Entry(store.getClass().getSimpleName(), action.getClass().getSimpleName());
+         byAction.put(action.getClass(), entry);
+      }
+      entry.histogram.record(reducerNanos);
+      if (next != previous) entry.changes++;
+   }
+
+   /**
+    * @return Copy of every store and action pair seen, slowest total time first.
+    */
+   public synchronized List<Entry> entries() {
+      ArrayList<Entry> entries = new ArrayList<>();
+      for (IdentityHashMap<Class<?>, Entry> byAction : byStore.values()) {
+         for (Entry entry : byAction.values()) entries.add(entry.copy());
+      }
+      Collections.sort(entries, (a, b) -> Long.compare(b.histogram.total(), a.histogram.total()));
+      return entries;
+   }
+
+   public synchronized void reset() {
+      byStore.clear();
+   }
+
+   public String dump() {
+      StringBuilder sb = new StringBuilder();
+      sb.append("┌ Reducer times, in us\n");
+      for (Entry entry : entries()) sb.append("├ ").append(entry).append('\n');
+      sb.append("└");
+      return sb.toString();
+   }
+
+   public static final class Entry {
+      public final String store;
+      public final String action;
+      private final LatencyHistogram histogram;
+      private long changes = 0;
+
+      private Entry(String store, String action) {
+         this(store, action, new LatencyHistogram());
+      }
+
+      private Entry(String store, String action, LatencyHistogram histogram) {
+         this.store = store;
+         this.action = action;
+         this.histogram = histogram;
+      }
+
+      private Entry copy() {
+         LatencyHistogram copy = new LatencyHistogram();
+         copy.add(histogram);
+         Entry entry = new Entry(store, action, copy);
+         entry.changes = changes;
+         return entry;
+      }
+
+      public long count() {
+         return histogram.count();
+      }
+
+      /**
+       * @return How many of the reductions changed the state.
+       */
+      public long changes() {
+         return changes;
+      }
+
+      public long totalNanos() {
+         return histogram.total();
+      }
+
+      public long maxNanos() {
+         return histogram.max();
+      }
+
+      public long percentileNanos(double percentile) {
+         return histogram.percentile(percentile);
+      }
+
+      @Override public String toString() {
+         return String.format(Locale.US, "%s <- %s - count %d, changed %d, total %d, p50 %d, p99 %d, max %d",
+               store, action, count(), changes, micros(totalNanos()), micros(percentileNanos(50)),
+               micros(percentileNanos(99)), micros(maxNanos()));
+      }
+
+      private static long micros(long nanos) {
+         return TimeUnit.NANOSECONDS.toMicros(nanos);
+      }
+   }
+}
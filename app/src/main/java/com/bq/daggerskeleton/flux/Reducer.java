@@ -0,0 +1,11 @@
+package com.bq.daggerskeleton.flux;
+
+/**
+ * Pure function that derives the next state of a store from an action. No side effects, no
+ * Android dependencies, so several actions can be folded at once with
+ * {@link Store#fold(Object, java.util.List)} and reducers can run in plain JVM tests.
+ */
+public interface Reducer<S, A extends Action> {
+
+   S reduce(S state, A action);
+}
@@ -0,0 +1,150 @@
+package com.bq.daggerskeleton.flux;
+
+import java.util.IdentityHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import timber.log.Timber;
+
+/**
+ * {@link TraceSink} that logs dispatched actions through Timber without paying the formatting
+ * cost on the ui thread.
+ * <p>
+ * The dispatch only stores the action reference and timestamps in a preallocated ring buffer,
+ * a background thread formats and logs them later, in batches, and sleeps while there is
+ * nothing to log. Entries are only formatted while some Timber tree is planted. When the buffer
+ * is full new entries are dropped and counted instead of blocking the dispatcher.
+ */
+public final class RingBufferTraceSink implements TraceSink {
+
+   private static final String TAG = "Dispatcher";
+   /** Time entries are left to pile up after the first one before formatting them. */
+   private static final long FLUSH_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+   private final int mask;
+   private final Action[] actions;
+   private final long[] startTimes;
+   private final long[] durations;
+
+   /** Next slot to write, only written by the ui thread. */
+   private volatile long writeSequence = 0;
+   /** Next slot to format, only written by the background thread. */
+   private volatile long readSequence = 0;
+   /** Set by the background thread while parked waiting for entries. */
+   private volatile boolean waiting = false;
+   private final Thread flusher;
+
+   private volatile boolean enabled = true;
+   private volatile IdentityHashMap<Class<?>, Sampler> samplers = new IdentityHashMap<>();
+   private volatile long dropped = 0;
+
+   private final long creationTime = System.nanoTime();
+   private long lastStartTime = creationTime;
+
+   /**
+    * @param capacity Number of pending entries, rounded up to a power of two.
+    */
+   public RingBufferTraceSink(int capacity) {
+      int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+      this.mask = size - 1;
+      this.actions = new Action[size];
+      this.startTimes = new long[size];
+      this.durations = new long[size];
+
+      flusher = new Thread(this::loop, "dispatch-trace");
+      flusher.setDaemon(true);
+      flusher.setPriority(Thread.MIN_PRIORITY);
+      flusher.start();
+   }
+
+   /**
+    * Switch logging on or off at runtime. When disabled the dispatch cost is a volatile read.
+    */
+   public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+   }
+
+   /**
+    * Log only one out of every <code>every</code> actions of the given type,
+    * <code>0</code> to ignore the type completely and <code>1</code> to log all of them.
+    */
+   public synchronized void sample(Class<? extends Action> actionType, int every) {
+      IdentityHashMap<Class<?>, Sampler> updated = new IdentityHashMap<>(samplers);
+      updated.put(actionType, new Sampler(every));
+      samplers = updated;
+   }
+
+   /**
+    * @return Entries discarded because the background thread could not keep up.
+    */
+   public long dropped() {
+      return dropped;
+   }
+
+   @Override public void onDispatched(Action action, boolean nested, long startNanos, long durationNanos) {
+      if (!enabled) return;
+      Sampler sampler = samplers.get(action.getClass());
+      if (sampler != null && !sampler.take()) return;
+
+      long sequence = writeSequence;
+      if (sequence - readSequence > mask) {
+         dropped++; //Only the ui thread writes
+         return;
+      }
+      int slot = (int) (sequence & mask);
+      actions[slot] = action;
+      startTimes[slot] = startNanos;
+      durations[slot] = durationNanos;
+      writeSequence = sequence + 1; //Publish
+      if (waiting) LockSupport.unpark(flusher);
+   }
+
+   private void loop() {
+      while (true) {
+         awaitEntries();
+         LockSupport.parkNanos(this, FLUSH_INTERVAL_NANOS);
+         long available = writeSequence;
+         long sequence = readSequence;
+         boolean logging = Timber.treeCount() > 0;
+         while (sequence < available) {
+            int slot = (int) (sequence & mask);
+            if (logging) log(actions[slot], startTimes[slot], durations[slot]);
+            actions[slot] = null;
+            readSequence = ++sequence; //Release the slot
+         }
+      }
+   }
+
+   private void awaitEntries() {
+      while (readSequence == writeSequence) {
+         waiting = true;
+         //Checked again after publishing the flag, the ui thread checks it after publishing an entry
+         if (readSequence == writeSequence) LockSupport.park(this);
+         waiting = false;
+      }
+   }
+
+   private void log(Action action, long startNanos, long durationNanos) {
+      long sinceStart = TimeUnit.NANOSECONDS.toMillis(startNanos - creationTime);
+      long sinceLast = Math.min(999, TimeUnit.NANOSECONDS.toMillis(startNanos - lastStartTime));
+      lastStartTime = startNanos;
+      Timber.tag(TAG).i("Action - %5d [%3d] (%4d us) -> %s",
+            sinceStart, sinceLast, TimeUnit.NANOSECONDS.toMicros(durationNanos), action);
+   }
+
+   private static final class Sampler {
+      final int every;
+      int counter = 0; //Only touched by the ui thread
+
+      Sampler(int every) {
+         this.every = every;
+      }
+
+      boolean take() {
+         if (every <= 0) return false;
+         if (++counter < every) return false;
+         counter = 0;
+         return true;
+      }
+   }
+}
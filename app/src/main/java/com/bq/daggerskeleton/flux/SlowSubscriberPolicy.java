@@ -0,0 +1,44 @@
+package com.bq.daggerskeleton.flux;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time budget for every subscription running in the ui thread, see
+ * {@link Dispatcher#setSlowSubscriberPolicy(SlowSubscriberPolicy)}.
+ * <p>
+ * A subscription that goes over budget in <code>violations</code> of its last <code>window</code>
+ * dispatches is flagged as slow and, if <code>demote</code> is set, moved to a background thread
+ * that keeps delivering its actions in order. A slow store reducer moves every reducer of its
+ * store to a mailbox of its own, as {@link Store#setMailboxesEnabled(boolean)} would, so they
+ * keep running in order in a single thread.
+ */
+public final class SlowSubscriberPolicy {
+
+   public final long budgetNanos;
+   public final int violations;
+   public final int window;
+   public final boolean demote;
+
+   public SlowSubscriberPolicy(long budget, TimeUnit unit, int violations, int window, boolean demote) {
+      if (window < 1 || window > 64) {
+         throw new IllegalArgumentException("Window must be between 1 and 64 dispatches, was " + window);
+      }
+      if (violations < 1 || violations > window) {
+         throw new IllegalArgumentException("Violations must be between 1 and " + window + ", was " + violations);
+      }
+      this.budgetNanos = unit.toNanos(budget);
+      this.violations = violations;
+      this.window = window;
+      this.demote = demote;
+   }
+
+   boolean isSlow(long history) {
+      long windowMask = window == 64 ? -1L : (1L << window) - 1;
+      return Long.bitCount(history & windowMask) >= violations;
+   }
+
+   @Override public String toString() {
+      return String.format("%d us in %d of the last %d dispatches",
+            TimeUnit.NANOSECONDS.toMicros(budgetNanos), violations, window);
+   }
+}
@@ -0,0 +1,17 @@
+package com.bq.daggerskeleton.flux;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary representation of the slice of a store state worth keeping across processes, used by
+ * {@link StateSnapshots}. Everything not encoded comes from {@link Store#initialState()}.
+ */
+public interface StateCodec<S> {
+
+   void encode(S state, ByteBuffer out);
+
+   /**
+    * @param state Current state of the store, return a copy with the decoded slice applied.
+    */
+   S decode(S state, ByteBuffer in);
+}
@@ -0,0 +1,181 @@
+package com.bq.daggerskeleton.flux;
+
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the last states of some stores, with the action that caused each one, to find out how
+ * a store got to a broken state. Register it with {@link Store#addInterceptor(StoreInterceptor)}.
+ * <p>
+ * States are immutable, usually {@link ImmutableState}, so the history only holds references and
+ * consecutive states share every field that didn't change. Memory is bounded by the capacity of
+ * each store ring, allocated once, and recording a change is a few array writes, cheap enough for
+ * release builds. Nothing is formatted until {@link #dump(Class)} or {@link #diff(Class, int, int)}.
+ */
+public final class StateHistory implements StoreInterceptor {
+
+   /**
+    * Name printed for changes made outside a reducer.
+    */
+   public static final String NO_ACTION = "-";
+
+   private final int capacity;
+   private final boolean recordAll;
+   private final IdentityHashMap<Class<?>, Ring> rings = new IdentityHashMap<>();
+
+   /**
+    * @param capacity   States kept per store.
+    * @param storeTypes Stores to record, all of them if empty.
+    */
+   public StateHistory(int capacity, Class<?>... storeTypes) {
+      if (capacity < 1) throw new IllegalArgumentException("Capacity must be positive, was " + capacity);
+      this.capacity = capacity;
+      this.recordAll = storeTypes.length == 0;
+      for (Class<?> storeType : storeTypes) {
+         rings.put(storeType, new Ring(capacity));
+      }
+   }
+
+   @Override public void onTransition(Store<?> store, @Nullable Action action, Object previous,
+                                      Object next, long reducerNanos) {
+      if (next == previous) return;
+      long now = System.nanoTime();
+      synchronized (this) {
+         Ring ring = rings.get(store.getClass());
+         if (ring == null) {
+            if (!recordAll) return;
+            ring = new Ring(capacity);
+            rings.put(store.getClass(), ring);
+         }
+         ring.add(store, action, next, now);
+      }
+   }
+
+   /**
+    * @return Recorded states of the store type, oldest first.
+    */
+   public synchronized List<Entry> entries(Class<?> storeType) {
+      Ring ring = rings.get(storeType);
+      return ring == null ? Collections.emptyList() : ring.entries();
+   }
+
+   /**
+    * Print every recorded state of the store type, oldest first, with the field list of its
+    * {@link StateSchema} if it has one.
+    */
+   public String dump(Class<?> storeType) {
+      List<Entry> entries = entries(storeType);
+      StringBuilder sb = new StringBuilder();
+      sb.append("┌ ").append(storeType.getSimpleName()).append(" history, ")
+            .append(entries.size()).append(" states\n");
+      long newest = entries.isEmpty() ? 0 : entries.get(entries.size() - 1).timeNanos;
+      StateSchema<Object> schema = schemaOf(storeType);
+      for (int i = 0; i < entries.size(); i++) {
+         Entry entry = entries.get(i);
+         sb.append(String.format(Locale.US, "├ %d, -%d ms, %s: ", i,
+               TimeUnit.NANOSECONDS.toMillis(newest - entry.timeNanos), entry.actionName()));
+         if (schema != null) {
+            schema.describe(entry.state, sb);
+         } else {
+            sb.append(entry.state);
+         }
+         sb.append('\n');
+      }
+      sb.append("└");
+      return sb.toString();
+   }
+
+   /**
+    * Print what changed between two recorded states of the store type, indexes as in
+    * {@link #entries(Class)}. Only the changed fields if the store has a {@link StateSchema}.
+    */
+   public String diff(Class<?> storeType, int from, int to) {
+      List<Entry> entries = entries(storeType);
+      Entry a = entries.get(from);
+      Entry b = entries.get(to);
+      StateSchema<Object> schema = schemaOf(storeType);
+      StringBuilder sb = new StringBuilder();
+      if (schema != null) {
+         if (!schema.diff(a.state, b.state, sb)) sb.append("No changes");
+      } else if (a.state.equals(b.state)) {
+         sb.append("No changes");
+      } else {
+         sb.append(a.state).append(" -> ").append(b.state);
+      }
+      return sb.toString();
+   }
+
+   @SuppressWarnings("unchecked")
+   @Nullable
+   private synchronized StateSchema<Object> schemaOf(Class<?> storeType) {
+      Ring ring = rings.get(storeType);
+      if (ring == null || ring.store == null) return null;
+      return (StateSchema<Object>) ring.store.stateSchema();
+   }
+
+   public static final class Entry {
+      /**
+       * Action that caused the state, null if it was changed outside a reducer.
+       */
+      @Nullable public final Action action;
+      public final Object state;
+      public final long timeNanos;
+
+      Entry(@Nullable Action action, Object state, long timeNanos) {
+         this.action = action;
+         this.state = state;
+         this.timeNanos = timeNanos;
+      }
+
+      /**
+       * @return Simple name of the action class, or {@link StateHistory#NO_ACTION}.
+       */
+      public String actionName() {
+         return action == null ? NO_ACTION : action.getClass().getSimpleName();
+      }
+
+      @Override public String toString() {
+         return actionName() + " -> " + state;
+      }
+   }
+
+   private static final class Ring {
+      final Action[] actions;
+      final Object[] states;
+      final long[] times;
+      @Nullable Store<?> store;
+      int next = 0;
+      int size = 0;
+
+      Ring(int capacity) {
+         actions = new Action[capacity];
+         states = new Object[capacity];
+         times = new long[capacity];
+      }
+
+      void add(Store<?> store, @Nullable Action action, Object state, long timeNanos) {
+         this.store = store;
+         actions[next] = action;
+         states[next] = state;
+         times[next] = timeNanos;
+         next = (next + 1) % actions.length;
+         if (size < actions.length) size++;
+      }
+
+      List<Entry> entries() {
+         ArrayList<Entry> entries = new ArrayList<>(size);
+         int first = (next - size + actions.length) % actions.length;
+         for (int i = 0; i < size; i++) {
+            int index = (first + i) % actions.length;
+            entries.add(new Entry(actions[index], states[index], times[index]));
+         }
+         return entries;
+      }
+   }
+}
@@ -0,0 +1,150 @@
+package com.bq.daggerskeleton.flux;
+
+import java.util.ArrayList;
+
+/**
+ * Registered list of the fields of a state, used to log what changed between two states instead
+ * of the whole {@link Object#toString()}.
+ * <p>
+ * Comparing two states doesn't allocate, values are only formatted for the fields that changed
+ * and cut to {@link Builder#maxValueLength(int)} characters.
+ */
+public final class StateSchema<S> {
+
+   private static final int DEFAULT_MAX_VALUE_LENGTH = 64;
+
+   private final Field<S>[] fields;
+   private final int maxValueLength;
+
+   private StateSchema(Field<S>[] fields, int maxValueLength) {
+      this.fields = fields;
+      this.maxValueLength = maxValueLength;
+   }
+
+   public static <S> Builder<S> builder() {
+      return new Builder<>();
+   }
+
+   /**
+    * Append <code>field: old -> new</code> for every field that changed.
+    *
+    * @return <code>false</code> if no field changed, leaving <code>out</code> untouched.
+    */
+   public boolean diff(S previous, S next, StringBuilder out) {
+      boolean changed = false;
+      for (Field<S> field : fields) {
+         if (field.same(previous, next)) continue;
+         if (changed) out.append(", ");
+         out.append(field.name).append(": ");
+         field.append(previous, out, maxValueLength);
+         out.append(" -> ");
+         field.append(next, out, maxValueLength);
+         changed = true;
+      }
+      return changed;
+   }
+
+   /**
+    * Append <code>field=value</code> for every field.
+    */
+   public void describe(S state, StringBuilder out) {
+      for (int i = 0; i < fields.length; i++) {
+         if (i > 0) out.append(", ");
+         out.append(fields[i].name).append('=');
+         fields[i].append(state, out, maxValueLength);
+      }
+   }
+
+   public interface Getter<S> {
+      Object get(S state);
+   }
+
+   public interface IntGetter<S> {
+      int get(S state);
+   }
+
+   public static final class Builder<S> {
+
+      private final ArrayList<Field<S>> fields = new ArrayList<>();
+      private int maxValueLength = DEFAULT_MAX_VALUE_LENGTH;
+
+      /**
+       * Value compared with {@link Object#equals(Object)} and logged with its toString.
+       */
+      public Builder<S> field(String name, Getter<? super S> getter) {
+         fields.add(new Field<>(name, getter, null, false));
+         return this;
+      }
+
+      /**
+       * Value compared by reference and logged as <code>Class@hash</code>, for handles like
+       * surfaces or devices with expensive or meaningless toString.
+       */
+      public Builder<S> identityField(String name, Getter<? super S> getter) {
+         fields.add(new Field<>(name, getter, null, true));
+         return this;
+      }
+
+      /**
+       * Primitive value, compared without boxing.
+       */
+      public Builder<S> intField(String name, IntGetter<? super S> getter) {
+         fields.add(new Field<>(name, null, getter, false));
+         return this;
+      }
+
+      public Builder<S> maxValueLength(int maxValueLength) {
+         if (maxValueLength < 1) throw new IllegalArgumentException("Max length must be positive");
+         this.maxValueLength = maxValueLength;
+         return this;
+      }
+
+      @SuppressWarnings("unchecked")
+      public StateSchema<S> build() {
+         return new StateSchema<>(fields.toArray(new Field[fields.size()]), maxValueLength);
+      }
+   }
+
+   private static final class Field<S> {
+      final String name;
+      final Getter<? super S> getter;
+      final IntGetter<? super S> intGetter;
+      final boolean identity;
+
+      Field(String name, Getter<? super S> getter, IntGetter<? super S> intGetter, boolean identity) {
+         this.name = name;
+         this.getter = getter;
+         this.intGetter = intGetter;
+         this.identity = identity;
+      }
+
+      boolean same(S a, S b) {
+         if (intGetter != null) return intGetter.get(a) == intGetter.get(b);
+         Object valueA = getter.get(a);
+         Object valueB = getter.get(b);
+         if (valueA == valueB) return true;
+         return !identity && valueA != null && valueA.equals(valueB);
+      }
+
+      void append(S state, StringBuilder out, int maxLength) {
+         if (intGetter != null) {
+            out.append(intGetter.get(state));
+            return;
+         }
+         Object value = getter.get(state);
+         if (value == null) {
+            out.append("null");
+         } else if (identity) {
+            out.append(value.getClass().getSimpleName()).append('@')
+                  .append(Integer.toHexString(System.identityHashCode(value)));
+         } else {
+            String text = value.toString();
+            if (text.length() <= maxLength) {
+               out.append(text);
+            } else {
+               out.append(text, 0, maxLength).append('…');
+            }
+         }
+      }
+   }
+}
@@ -0,0 +1,232 @@
+package com.bq.daggerskeleton.flux;
+
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import timber.log.Timber;
+
+/**
+ * Keeps the state of the stores that declare a {@link Store#snapshotCodec()} across processes.
+ * <p>
+ * {@link #save()} takes the current states, that are immutable, and encodes them in a background
+ * thread into a memory-mapped file. {@link #restore()} applies them back, call it before
+ * dispatching {@link InitAction} so the first frame can use the cached values.
+ * <p>
+ * Layout: a header ({@link #MAGIC}, {@link #VERSION}, app version, entry count) followed by
+ * entries of <code>[short keyLength][key][int length][payload]</code>, the key being the store
+ * class name. Snapshots from another app version are ignored.
+ */
+public final class StateSnapshots {
+
+   static final int MAGIC = 0x534E4150; //SNAP
+   static final short VERSION = 1;
+   private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+   private final File file;
+   private final int maxSize;
+   private final int appVersion;
+   private final Entry<?>[] entries;
+   private final HashMap<String, Entry<?>> byKey = new HashMap<>();
+   private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "state-snapshots");
+      thread.setDaemon(true);
+      return thread;
+   });
+   private ByteBuffer buffer; //Only touched by the writer
+
+   /**
+    * @param maxSize    Max size in bytes of a snapshot, stores that don't fit are skipped.
+    * @param appVersion Snapshots written by another version are discarded.
+    */
+   public StateSnapshots(File file, int maxSize, int appVersion, Collection<? extends Store<?>> stores) {
+      this.file = file;
+      this.maxSize = maxSize;
+      this.appVersion = appVersion;
+      ArrayList<Entry<?>> withCodec = new ArrayList<>();
+      for (Store<?> store : stores) {
+         Entry<?> entry = Entry.of(store);
+         if (entry != null) {
+            withCodec.add(entry);
+            byKey.put(entry.key, entry);
+         }
+      }
+      this.entries = withCodec.toArray(new Entry<?>[withCodec.size()]);
+   }
+
+   /**
+    * Apply the last snapshot to the stores. Must be called from the thread the Dispatcher runs on.
+    *
+    * @return Number of stores restored.
+    */
+   public int restore() {
+      if (entries.length == 0 || !file.exists()) return 0;
+      ByteBuffer in;
+      try {
+         in = map(file);
+      } catch (IOException e) {
+         Timber.e(e, "Unable to read the state snapshot");
+         return 0;
+      }
+      if (in.remaining() < 12 || in.getInt() != MAGIC || in.getShort() != VERSION
+            || in.getInt() != appVersion) {
+         Timber.d("Discarding state snapshot from another version");
+         return 0;
+      }
+
+      int restored = 0;
+      int count = in.getShort() & 0xFFFF;
+      try {
+         for (int i = 0; i < count; i++) {
+            String key = getString(in);
+            int length = in.getInt();
+            ByteBuffer payload = in.slice();
+            payload.limit(length);
+            in.position(in.position() + length);
+
+            Entry<?> entry = byKey.get(key);
+            if (entry == null) continue;
+            try {
+               entry.restore(payload);
+               restored++;
+            } catch (RuntimeException e) {
+               Timber.w(e, "Discarding state snapshot of %s", key);
+            }
+         }
+      } catch (RuntimeException e) {
+         Timber.w(e, "Truncated state snapshot");
+      }
+      Dispatcher.propagateDerivedStores();
+      return restored;
+   }
+
+   /**
+    * Write the current states in the background, replacing the previous snapshot once complete.
+    * Must be called from the thread the Dispatcher runs on.
+    */
+   public Future<?> save() {
+      Object[] states = new Object[entries.length];
+      for (int i = 0; i < entries.length; i++) {
+         states[i] = entries[i].store.state();
+      }
+      return writer.submit(() -> write(states));
+   }
+
+   private void write(Object[] states) {
+      if (buffer == null) buffer = ByteBuffer.allocate(maxSize);
+      buffer.clear();
+      buffer.putInt(MAGIC);
+      buffer.putShort(VERSION);
+      buffer.putInt(appVersion);
+      int countPosition = buffer.position();
+      buffer.putShort((short) 0);
+
+      short count = 0;
+      for (int i = 0; i < entries.length; i++) {
+         int entryStart = buffer.position();
+         try {
+            putString(buffer, entries[i].key);
+            int lengthPosition = buffer.position();
+            buffer.putInt(0);
+            entries[i].encode(states[i], buffer);
+            buffer.putInt(lengthPosition, buffer.position() - lengthPosition - 4);
+            count++;
+         } catch (BufferOverflowException e) {
+            buffer.position(entryStart);
+            Timber.w("State snapshot of %s doesn't fit, skipped", entries[i].key);
+         }
+      }
+      buffer.putShort(countPosition, count);
+      buffer.flip();
+
+      //Write aside and rename, a crash while writing keeps the previous snapshot
+      File temp = new File(file.getPath() + ".tmp");
+      try {
+         RandomAccessFile randomAccessFile = new RandomAccessFile(temp, "rw");
+         try {
+            randomAccessFile.setLength(0);
+            MappedByteBuffer out = randomAccessFile.getChannel()
+                  .map(FileChannel.MapMode.READ_WRITE, 0, buffer.remaining());
+            out.put(buffer);
+            out.force();
+         } finally {
+            randomAccessFile.close();
+         }
+         if (!temp.renameTo(file)) throw new IOException("Unable to replace " + file);
+      } catch (IOException e) {
+         Timber.e(e, "Unable to write the state snapshot");
+      }
+   }
+
+   private static ByteBuffer map(File file) throws IOException {
+      RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+      try {
+         FileChannel channel = randomAccessFile.getChannel();
+         return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      } finally {
+         randomAccessFile.close();
+      }
+   }
+
+   /**
+    * Write a nullable string for {@link StateCodec}s, read it with {@link #getString(ByteBuffer)}.
+    */
+   public static void putString(ByteBuffer out, @Nullable String value) {
+      if (value == null) {
+         out.putShort((short) -1);
+         return;
+      }
+      byte[] bytes = value.getBytes(UTF_8);
+      out.putShort((short) bytes.length);
+      out.put(bytes);
+   }
+
+   @Nullable
+   public static String getString(ByteBuffer in) {
+      short length = in.getShort();
+      if (length < 0) return null;
+      byte[] bytes = new byte[length];
+      in.get(bytes);
+      return new String(bytes, UTF_8);
+   }
+
+   private static final class Entry<S> {
+      final String key;
+      final Store<S> store;
+      final StateCodec<S> codec;
+
+      private Entry(Store<S> store, StateCodec<S> codec) {
+         this.key = store.getClass().getName();
+         this.store = store;
+         this.codec = codec;
+      }
+
+      @Nullable
+      static <S> Entry<S> of(Store<S> store) {
+         StateCodec<S> codec = store.snapshotCodec();
+         return codec == null ? null : new Entry<>(store, codec);
+      }
+
+      @SuppressWarnings("unchecked")
+      void encode(Object state, ByteBuffer out) {
+         codec.encode((S) state, out);
+      }
+
+      void restore(ByteBuffer in) {
+         store.setState(codec.decode(store.state(), in));
+      }
+   }
+}
@@ -5,33 +5,455 @@ import android.support.annotation.Nullable;
 
 import com.bq.daggerskeleton.common.log.LoggerPlugin;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
 import io.reactivex.Emitter;
 import io.reactivex.Flowable;
-import io.reactivex.processors.PublishProcessor;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.disposables.Disposables;
+import io.reactivex.functions.BiFunction;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
+import io.reactivex.functions.Function3;
+import io.reactivex.processors.BehaviorProcessor;
 
 public abstract class Store<S> {
 
-   @Nullable
-   private S state;
+   private static boolean mailboxesEnabled = false;
+   private static volatile StoreInterceptor[] interceptors = new StoreInterceptor[0];
+
+   /**
+    * Current state, null until first read. Any thread can read it, see {@link #update(Function)}.
+    */
+   private final AtomicReference<S> state = new AtomicReference<>();
 
+   /**
+    * Holds the latest published state, seeded with the initial state when first created.
+    */
    @LoggerPlugin.AutoLog
-   private final PublishProcessor<S> processor = PublishProcessor.create();
+   private final BehaviorProcessor<S> processor = BehaviorProcessor.create();
+   /**
+    * Publications requested while one was running, only one thread at a time publishes.
+    */
+   private final AtomicInteger publishing = new AtomicInteger();
+   /** Only touched by the thread publishing. */
+   @Nullable private S published;
+   private final Flowable<S> states = Flowable.defer(this::seededProcessor).onBackpressureLatest();
+
+   private boolean emissionDeferred = false;
+
+   /**
+    * Registered reducers, copied on write so any thread can fold without locking.
+    */
+   private volatile Registration[] reducers = new Registration[0];
+
+   /**
+    * Reducer running in {@link Intercepted}, only tracked while there are interceptors. Reducers
+    * of a store never run concurrently and only the thread reducing reads these.
+    */
+   @Nullable private Thread reducingThread;
+   @Nullable private Action reducingAction;
+   private long reducingStart;
+   private boolean transitionReported;
+
+   /**
+    * Set when created if mailboxes are enabled, or later if the store gets demoted. Only written
+    * by the ui thread.
+    */
+   @Nullable
+   private volatile Mailbox mailbox = mailboxesEnabled ? createMailbox() : null;
+
+   /**
+    * Run the reducers of every store created from now on in its own single threaded event loop
+    * instead of the ui thread. Stores reduce in parallel, each one keeping the dispatch order,
+    * and state emissions are handed back to the ui thread. {@link #state()} may lag behind
+    * the last dispatched action. Only reducers subscribed through the store are affected.
+    */
+   public static void setMailboxesEnabled(boolean enabled) {
+      mailboxesEnabled = enabled;
+   }
 
    protected abstract S initialState();
 
+   private Mailbox createMailbox() {
+      return new Mailbox("store-" + getClass().getSimpleName());
+   }
+
+   /**
+    * Move this store out of the ui thread, see {@link SlowSubscriberPolicy}. Reducers subscribed
+    * from now on and {@link #runOnStoreThread(Runnable)} use the new mailbox, the Dispatcher moves
+    * the existing subscriptions.
+    *
+    * @return The store mailbox, created if the store had none.
+    */
+   final Mailbox demote() {
+      Mailbox current = mailbox;
+      if (current == null) {
+         current = createMailbox();
+         mailbox = current;
+      }
+      return current;
+   }
+
+   /**
+    * Observe every state change of every store, and every run of a reducer subscribed through a
+    * store even if it didn't change the state. Without interceptors the cost per reducer and
+    * state change is a volatile read.
+    *
+    * @return Disposable that removes the interceptor.
+    */
+   public static Disposable addInterceptor(StoreInterceptor interceptor) {
+      synchronized (Store.class) {
+         StoreInterceptor[] updated = Arrays.copyOf(interceptors, interceptors.length + 1);
+         updated[interceptors.length] = interceptor;
+         interceptors = updated;
+      }
+      return Disposables.fromAction(() -> {
+         synchronized (Store.class) {
+            ArrayList<StoreInterceptor> remaining = new ArrayList<>(Arrays.asList(interceptors));
+            remaining.remove(interceptor);
+            interceptors = remaining.toArray(new StoreInterceptor[remaining.size()]);
+         }
+      });
+   }
+
+   /**
+    * Opt in to {@link StateSnapshots}.
+    *
+    * @return Codec for the slice of the state restored on the next start, null to start from
+    * {@link #initialState()} every time.
+    */
+   @Nullable
+   protected StateCodec<S> snapshotCodec() {
+      return null;
+   }
+
+   /**
+    * @return Fields of the state, to log only the ones that change. Null to log the whole state.
+    */
+   @Nullable
+   public StateSchema<S> stateSchema() {
+      return null;
+   }
+
+   /**
+    * @return Hot flowable of published states. Every subscriber gets the current state first and
+    * then every change, or only the latest one if it can't keep up. All subscribers share
+    * the same processor.
+    */
    public Flowable<S> flowable() {
+      return states;
+   }
+
+   private BehaviorProcessor<S> seededProcessor() {
+      state();
       return processor;
    }
 
+   /**
+    * Project the state into the part a subscriber cares about. The projection is computed once
+    * per state change and only emitted when it changes, starting with the current one.
+    * The returned flowable is shared by all its subscribers and replays the latest projection,
+    * keep it in a field and reuse it instead of calling this again.
+    *
+    * @param selector Pure function of the state, can't return null.
+    */
+   public final <R> Flowable<R> select(Function<? super S, ? extends R> selector) {
+      return share(flowable().map(selector));
+   }
+
+   /**
+    * Combine several selections, from this or other stores, into a single one with the same
+    * guarantees as {@link #select(Function)}.
+    */
+   public static <A, B, R> Flowable<R> select(Flowable<A> a, Flowable<B> b,
+                                             BiFunction<? super A, ? super B, ? extends R> selector) {
+      return share(Flowable.combineLatest(a, b, selector));
+   }
+
+   public static <A, B, C, R> Flowable<R> select(Flowable<A> a, Flowable<B> b, Flowable<C> c,
+                                                Function3<? super A, ? super B, ? super C, ? extends R> selector) {
+      return share(Flowable.combineLatest(a, b, c, selector));
+   }
+
+   private static <R> Flowable<R> share(Flowable<R> selection) {
+      return selection.distinctUntilChanged().replay(1).refCount();
+   }
+
    @NonNull
    public final S state() {
-      if (state == null) state = initialState();
+      S current = state.get();
+      if (current == null) {
+         S initial = initialState();
+         if (state.compareAndSet(null, initial)) {
+            publishLatest();
+            return initial;
+         }
+         current = state.get();
+      }
+      return current;
+   }
+
+   protected final <T extends Action> Disposable subscribe(Class<T> actionType, Consumer<T> reducer) {
+      return subscribe(Dispatcher.DEFAULT_PRIORITY, actionType, reducer);
+   }
+
+   /**
+    * Same as {@link Dispatcher#subscribe(int, Class, Consumer)}, running the reducer in this store
+    * mailbox when enabled.
+    */
+   protected final <T extends Action> Disposable subscribe(int priority, Class<T> actionType, Consumer<T> reducer) {
+      return Dispatcher.subscribe(priority, actionType, null, intercept(reducer), null, mailbox);
+   }
+
+   protected final <K extends Enum<K>, T extends KeyedAction<K>> Disposable subscribe(Class<T> actionType, K key,
+                                                                                      Consumer<T> reducer) {
+      if (key == null) throw new NullPointerException("key == null");
+      return Dispatcher.subscribe(Dispatcher.DEFAULT_PRIORITY, actionType, key, intercept(reducer), null, mailbox);
+   }
+
+   /**
+    * Reduce every action of the given type with a pure reducer. Unlike a subscription, the
+    * reducer is also used by {@link #reduce(Object, Action)} and {@link #fold(Object, List)}.
+    *
+    * @return Disposable that removes the reducer.
+    */
+   protected final <A extends Action> Disposable addReducer(Class<A> actionType, Reducer<S, ? super A> reducer) {
+      Registration registration = new Registration(actionType, reducer);
+      Registration[] updated = Arrays.copyOf(reducers, reducers.length + 1);
+      updated[reducers.length] = registration;
+      reducers = updated;
+      Consumer<A> consumer = a -> setState(reducer.reduce(state(), a));
+      Disposable subscription = Dispatcher.subscribe(Dispatcher.DEFAULT_PRIORITY, actionType, null,
+            intercept(consumer), null, mailbox);
+      return Disposables.fromAction(() -> {
+         subscription.dispose();
+         ArrayList<Registration> remaining = new ArrayList<>(Arrays.asList(reducers));
+         remaining.remove(registration);
+         reducers = remaining.toArray(new Registration[remaining.size()]);
+      });
+   }
+
+   /**
+    * Apply every reducer registered for the action, in registration order, without changing
+    * the store state or emitting. Safe to call from any thread.
+    */
+   public final S reduce(S state, Action action) {
+      return reduce(reducers, state, action);
+   }
+
+   /**
+    * Reduce all the actions in a single pass, see {@link #reduce(Object, Action)}.
+    */
+   public final S fold(S state, List<? extends Action> actions) {
+      Registration[] registrations = reducers;
+      for (int i = 0; i < actions.size(); i++) {
+         state = reduce(registrations, state, actions.get(i));
+      }
+      return state;
+   }
+
+   @SuppressWarnings("unchecked")
+   private static <S> S reduce(Registration[] registrations, S state, Action action) {
+      for (int i = 0; i < registrations.length; i++) {
+         if (registrations[i].actionType.isInstance(action)) {
+            state = ((Reducer<S, Action>) registrations[i].reducer).reduce(state, action);
+         }
+      }
       return state;
    }
 
+   /**
+    * Same as {@link Dispatcher#route(Object)} for this store {@link OnAction} methods, running them
+    * in this store mailbox when enabled.
+    */
+   protected final Disposable route() {
+      return Dispatcher.route(this, this, mailbox);
+   }
+
+   final <T extends Action> Consumer<T> intercept(Consumer<T> reducer) {
+      return new Intercepted<>(reducer);
+   }
+
+   /**
+    * Run a block that changes the state from outside a reducer, like a subscription to another
+    * store. Runs in this store mailbox when enabled, right away otherwise.
+    */
+   protected final void runOnStoreThread(Runnable block) {
+      Mailbox current = mailbox;
+      if (current == null) {
+         block.run();
+      } else {
+         current.execute(block);
+      }
+   }
+
+   /**
+    * Replace the state. Meant for reducers, that run in a single thread, use
+    * {@link #update(Function)} when several threads may change the state.
+    */
    protected final void setState(@NonNull S newState) {
-      if (newState.equals(state())) return;
-      state = newState;
-      processor.onNext(state);
+      S current = state();
+      if (newState == current || newState.equals(current)) return;
+      state.set(newState);
+      StoreInterceptor[] chain = interceptors;
+      if (chain.length > 0) reportTransition(chain, current, newState);
+      publish();
+   }
+
+   /**
+    * Atomically derive a new state from the current one, from any thread. The function may run
+    * more than once if another thread changes the state meanwhile, it must not have side effects.
+    *
+    * @return The state after the update.
+    */
+   protected final S update(Function<? super S, ? extends S> function) {
+      while (true) {
+         S current = state();
+         S updated;
+         try {
+            updated = function.apply(current);
+         } catch (Exception e) {
+            throw new RuntimeException(e);
+         }
+         if (updated == current || updated.equals(current)) return current;
+         if (state.compareAndSet(current, updated)) {
+            StoreInterceptor[] chain = interceptors;
+            if (chain.length > 0) reportTransition(chain, current, updated);
+            publish();
+            return updated;
+         }
+      }
+   }
+
+   /**
+    * Report a change before publishing it, with the reducer that made it if this thread is
+    * running one.
+    */
+   private void reportTransition(StoreInterceptor[] chain, S previous, S next) {
+      Action action = null;
+      long elapsed = 0;
+      if (reducingThread == Thread.currentThread()) {
+         action = reducingAction;
+         elapsed = System.nanoTime() - reducingStart;
+         transitionReported = true;
+      }
+      for (int i = 0; i < chain.length; i++) {
+         chain[i].onTransition(this, action, previous, next, elapsed);
+      }
+   }
+
+   private void publish() {
+      if (Mailbox.anyCreated && Mailbox.isMailboxThread()) {
+         Mailbox.publish(() -> {
+            publishLatest();
+            Dispatcher.propagateDerivedStores(); //Reduced after the dispatch that propagated
+         });
+         return;
+      }
+      if (Dispatcher.isBatching()) {
+         if (!emissionDeferred) {
+            emissionDeferred = true;
+            Dispatcher.deferStateEmission(this);
+         }
+         return;
+      }
+      emissionDeferred = false;
+      publishLatest();
+   }
+
+   /**
+    * Emit the current state unless already emitted. Callers racing from several threads never
+    * block or emit concurrently, one of them keeps emitting until no newer state is left, so
+    * stale states are skipped.
+    */
+   private void publishLatest() {
+      if (publishing.getAndIncrement() != 0) return;
+      int missed = 1;
+      do {
+         S latest = state.get();
+         if (latest != published) {
+            published = latest;
+            processor.onNext(latest);
+         }
+         missed = publishing.addAndGet(-missed);
+      } while (missed != 0);
+   }
+
+   /**
+    * Publish the last state set during a {@link Dispatcher#batch(Runnable)}, if it was not
+    * published already.
+    */
+   final void publishDeferredState() {
+      if (!emissionDeferred) return;
+      emissionDeferred = false;
+      publishLatest();
+   }
+
+   /**
+    * Reducer that tells the {@link StoreInterceptor}s, if any, which action caused the changes
+    * it makes, and reports the runs that changed nothing.
+    */
+   final class Intercepted<T extends Action> implements Consumer<T> {
+      private final Consumer<T> reducer;
+
+      Intercepted(Consumer<T> reducer) {
+         this.reducer = reducer;
+      }
+
+      @Override public void accept(T action) throws Exception {
+         StoreInterceptor[] chain = interceptors;
+         if (chain.length == 0) {
+            reducer.accept(action);
+            return;
+         }
+         //A reducer may dispatch and get here again for the same store
+         Thread outerThread = reducingThread;
+         Action outerAction = reducingAction;
+         long outerStart = reducingStart;
+         boolean outerReported = transitionReported;
+         reducingThread = Thread.currentThread();
+         reducingAction = action;
+         transitionReported = false;
+         reducingStart = System.nanoTime();
+         try {
+            reducer.accept(action);
+            if (!transitionReported) {
+               long elapsed = System.nanoTime() - reducingStart;
+               S current = state();
+               for (int i = 0; i < chain.length; i++) {
+                  chain[i].onTransition(Store.this, action, current, current, elapsed);
+               }
+            }
+         } finally {
+            reducingThread = outerThread;
+            reducingAction = outerAction;
+            reducingStart = outerStart;
+            transitionReported = outerReported;
+         }
+      }
+
+      Store<S> store() {
+         return Store.this;
+      }
+
+      @Override public String toString() {
+         //Lambda class names change between builds, the store class doesn't
+         return reducer instanceof Dispatcher.Route ? reducer.toString() : Store.this.getClass().getName();
+      }
+   }
+
+   private static final class Registration {
+      final Class<?> actionType;
+      final Reducer<?, ?> reducer;
+
+      Registration(Class<?> actionType, Reducer<?, ?> reducer) {
+         this.actionType = actionType;
+         this.reducer = reducer;
+      }
    }
 }
@@ -0,0 +1,23 @@
+package com.bq.daggerskeleton.flux;
+
+import android.support.annotation.Nullable;
+
+/**
+ * Observes the state changes of every store, see {@link Store#addInterceptor(StoreInterceptor)}.
+ * <p>
+ * Called in the thread that changed the state, right after the change and before publishing it,
+ * in registration order. Also called once after a reducer that changed nothing. Throwing fails
+ * the dispatch the same way a failing reducer does.
+ */
+public interface StoreInterceptor {
+
+   /**
+    * @param action       Action being reduced, null for changes made outside a reducer, like
+    *                     {@link Store#update(io.reactivex.functions.Function)} from another thread,
+    *                     a restored snapshot or a {@link DerivedStore} update.
+    * @param next         Same instance as <code>previous</code> if the reducer didn't change the state.
+    * @param reducerNanos Time spent in the reducer until it changed the state, or until it returned
+    *                     if it didn't. Publishing the state is not included. 0 without an action.
+    */
+   void onTransition(Store<?> store, @Nullable Action action, Object previous, Object next, long reducerNanos);
+}
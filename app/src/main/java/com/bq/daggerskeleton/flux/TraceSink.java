@@ -0,0 +1,21 @@
+package com.bq.daggerskeleton.flux;
+
+/**
+ * Receives every action the {@link Dispatcher} delivered, see
+ * {@link Dispatcher#addTraceSink(TraceSink)}.
+ */
+public interface TraceSink {
+
+   /**
+    * Called on the ui thread once every subscriber consumed the action. Actions are received in
+    * the order they were dispatched: actions dispatched from a subscriber are received right
+    * after the one that dispatched them, once it completes. Runs inside the dispatch hot path,
+    * implementations must not block, format or do I/O here.
+    *
+    * @param nested        <code>true</code> if a subscriber dispatched the action, directly or
+    *                      from a {@link DerivedStore}, while handling another one.
+    * @param startNanos    {@link System#nanoTime()} when the dispatch started.
+    * @param durationNanos Time spent by the subscribers.
+    */
+   void onDispatched(Action action, boolean nested, long startNanos, long durationNanos);
+}
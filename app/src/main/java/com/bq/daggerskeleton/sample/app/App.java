@@ -5,11 +5,31 @@ import android.os.Handler;
 import android.os.HandlerThread;
 
 import com.bq.daggerskeleton.BuildConfig;
+import com.bq.daggerskeleton.flux.ActionCodecs;
+import com.bq.daggerskeleton.flux.ActionJournal;
 import com.bq.daggerskeleton.flux.Dispatcher;
 import com.bq.daggerskeleton.flux.InitAction;
+import com.bq.daggerskeleton.flux.ProfilingInterceptor;
+import com.bq.daggerskeleton.flux.RingBufferTraceSink;
+import com.bq.daggerskeleton.flux.SlowSubscriberPolicy;
+import com.bq.daggerskeleton.flux.StateHistory;
+import com.bq.daggerskeleton.flux.StateSnapshots;
 import com.bq.daggerskeleton.flux.Store;
-
+import com.bq.daggerskeleton.sample.hardware.CameraPermissionChanged;
+import com.bq.daggerskeleton.sample.hardware.CameraStore;
+import com.bq.daggerskeleton.sample.hardware.CloseCameraAction;
+import com.bq.daggerskeleton.sample.hardware.OpenCameraAction;
+import com.bq.daggerskeleton.sample.hardware.session.SessionStore;
+import com.bq.daggerskeleton.sample.preview.PreviewSurfaceBufferCalculatedAction;
+import com.bq.daggerskeleton.sample.preview.PreviewSurfaceDestroyedAction;
+import com.bq.daggerskeleton.sample.rotation.DeviceRotatedAction;
+import com.bq.daggerskeleton.sample.rotation.RotationStore;
+
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Named;
 
@@ -19,7 +39,15 @@ import timber.log.Timber;
 
 public class App extends Application {
 
+   public static final String ACTION_JOURNAL_FILE = "actions.journal";
+   private static final int ACTION_JOURNAL_SIZE = 1024 * 1024; //1MB
+   public static final String STATE_SNAPSHOT_FILE = "state.snapshot";
+   private static final int STATE_SNAPSHOT_SIZE = 64 * 1024; //64KB
+   private static final int STATE_HISTORY_SIZE = 32;
+   private static final Class<?>[] STATE_HISTORY_STORES = {CameraStore.class, SessionStore.class, RotationStore.class};
+
    private AppComponent appComponent;
+   private final StateHistory stateHistory = new StateHistory(STATE_HISTORY_SIZE, STATE_HISTORY_STORES);
 
    @Override public void onCreate() {
       super.onCreate();
@@ -28,13 +56,34 @@ public class App extends Application {
       Thread.UncaughtExceptionHandler defaultUncaughtExceptionHandler = Thread.getDefaultUncaughtExceptionHandler();
       Thread.setDefaultUncaughtExceptionHandler((t, e) -> {
          Timber.tag("Fatal").e(e, "PID: %d", t.getId());
+         for (Class<?> storeType : STATE_HISTORY_STORES) {
+            Timber.tag("Fatal").e("%s", stateHistory.dump(storeType));
+         }
          defaultUncaughtExceptionHandler.uncaughtException(t, e);
       });
 
+      Store.addInterceptor(stateHistory);
+      RingBufferTraceSink traceSink = new RingBufferTraceSink(256);
+      //Sensor bursts, a few rotations are enough to follow them in release logs
+      if (!BuildConfig.DEBUG) traceSink.sample(DeviceRotatedAction.class, 4);
+      Dispatcher.addTraceSink(traceSink);
+      if (BuildConfig.RECORD_ACTIONS) startActionJournal();
+      if (BuildConfig.DEBUG) {
+         //Slow stores, like CameraStore opening the camera, move to a thread of their own keeping their order
+         Dispatcher.setSlowSubscriberPolicy(new SlowSubscriberPolicy(4, TimeUnit.MILLISECONDS, 3, 16, true));
+         ProfilingInterceptor profiler = new ProfilingInterceptor();
+         Store.addInterceptor(profiler);
+         Dispatcher.subscribe(Dispatcher.VERY_LOW_PRIORITY, LifeCycleAction.class, LifeCycleAction.Event.ON_PAUSE,
+               a -> Timber.d(profiler.dump()));
+      }
+
+      Store.setMailboxesEnabled(BuildConfig.STORE_MAILBOXES);
+
       long now = System.currentTimeMillis();
       appComponent = DaggerAppComponent.builder().appModule(new AppModule(this)).build();
       ArrayList<Store<?>> stores = new ArrayList<>(appComponent.stores());
 
+      setUpStateSnapshots(stores);
       Dispatcher.dispatch(new InitAction());
 
       final long elapsed = System.currentTimeMillis() - now;
@@ -49,10 +98,56 @@ public class App extends Application {
       }
    }
 
+   /**
+    * Restore the stores from the last snapshot before they get any action, and write a new one
+    * every time the app goes to background, since the process may die from then on.
+    */
+   private void setUpStateSnapshots(List<Store<?>> stores) {
+      StateSnapshots snapshots = new StateSnapshots(new File(getCacheDir(), STATE_SNAPSHOT_FILE),
+            STATE_SNAPSHOT_SIZE, BuildConfig.VERSION_CODE, stores);
+      int restored = snapshots.restore();
+      Timber.v("Restored %d stores from snapshot", restored);
+      Dispatcher.subscribe(Dispatcher.VERY_LOW_PRIORITY, LifeCycleAction.class, LifeCycleAction.Event.ON_PAUSE,
+            a -> snapshots.save());
+   }
+
+   private void startActionJournal() {
+      File file = new File(getCacheDir(), ACTION_JOURNAL_FILE);
+      try {
+         Dispatcher.addTraceSink(new ActionJournal(file, ACTION_JOURNAL_SIZE, actionCodecs()));
+         Timber.d("Recording actions in: %s", file.getAbsolutePath());
+      } catch (IOException e) {
+         Timber.e(e, "Unable to create the action journal");
+      }
+   }
+
+   /**
+    * Codecs for every action that can be recorded and replayed. Ids are written in the journal,
+    * never reuse or change them.
+    */
+   public static ActionCodecs actionCodecs() {
+      return new ActionCodecs()
+            .register(1, InitAction.class, InitAction::new)
+            .register(2, LifeCycleAction.class, LifeCycleAction.CODEC)
+            .register(3, CameraPermissionChanged.class, CameraPermissionChanged.CODEC)
+            .register(4, OpenCameraAction.class, OpenCameraAction::new)
+            .register(5, CloseCameraAction.class, CloseCameraAction::new)
+            .register(6, PreviewSurfaceDestroyedAction.class, PreviewSurfaceDestroyedAction::new)
+            .register(7, PreviewSurfaceBufferCalculatedAction.class, PreviewSurfaceBufferCalculatedAction.CODEC)
+            .register(8, DeviceRotatedAction.class, DeviceRotatedAction.CODEC);
+   }
+
    public AppComponent getAppComponent() {
       return appComponent;
    }
 
+   /**
+    * @return Last states of the camera, session and rotation stores, recorded in every build.
+    */
+   public StateHistory getStateHistory() {
+      return stateHistory;
+   }
+
    @Module
    static class AppModule {
       private final App app;
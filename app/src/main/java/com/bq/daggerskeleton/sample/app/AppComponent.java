@@ -5,6 +5,7 @@ import com.bq.daggerskeleton.common.MainActivity;
 import com.bq.daggerskeleton.sample.CameraComponent;
 import com.bq.daggerskeleton.flux.Store;
 import com.bq.daggerskeleton.sample.hardware.CameraStore;
+import com.bq.daggerskeleton.sample.hardware.session.CameraSessionStore;
 import com.bq.daggerskeleton.sample.hardware.session.SessionStore;
 import com.bq.daggerskeleton.sample.rotation.RotationStore;
 
@@ -19,6 +20,7 @@ import dagger.Component;
             LoggerStore.LoggerModule.class,
             CameraStore.CameraModule.class,
             SessionStore.SessionModule.class,
+            CameraSessionStore.CameraSessionModule.class,
       }
 )
 @AppScope
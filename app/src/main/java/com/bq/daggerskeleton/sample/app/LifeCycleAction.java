@@ -1,8 +1,21 @@
 package com.bq.daggerskeleton.sample.app;
 
-import com.bq.daggerskeleton.flux.Action;
+import com.bq.daggerskeleton.flux.ActionCodec;
+import com.bq.daggerskeleton.flux.KeyedAction;
 
-public class LifeCycleAction implements Action {
+import java.nio.ByteBuffer;
+
+public class LifeCycleAction implements KeyedAction<LifeCycleAction.Event> {
+
+   public static final ActionCodec<LifeCycleAction> CODEC = new ActionCodec<LifeCycleAction>() {
+      @Override public void encode(LifeCycleAction action, ByteBuffer out) {
+         out.put((byte) action.event.ordinal());
+      }
+
+      @Override public LifeCycleAction decode(ByteBuffer in) {
+         return new LifeCycleAction(Event.values()[in.get()]);
+      }
+   };
 
    public final Event event;
 
@@ -10,6 +23,10 @@ public class LifeCycleAction implements Action {
       this.event = event;
    }
 
+   @Override public Event key() {
+      return event;
+   }
+
    @Override public String toString() {
       return "LifeCycleAction{" +
             "event=" + event +
@@ -1,9 +1,22 @@
 package com.bq.daggerskeleton.sample.hardware;
 
 import com.bq.daggerskeleton.flux.Action;
+import com.bq.daggerskeleton.flux.ActionCodec;
+
+import java.nio.ByteBuffer;
 
 public class CameraPermissionChanged implements Action {
 
+   public static final ActionCodec<CameraPermissionChanged> CODEC = new ActionCodec<CameraPermissionChanged>() {
+      @Override public void encode(CameraPermissionChanged action, ByteBuffer out) {
+         out.put((byte) (action.granted ? 1 : 0));
+      }
+
+      @Override public CameraPermissionChanged decode(ByteBuffer in) {
+         return new CameraPermissionChanged(in.get() != 0);
+      }
+   };
+
    public final boolean granted;
 
    public CameraPermissionChanged(boolean granted) {
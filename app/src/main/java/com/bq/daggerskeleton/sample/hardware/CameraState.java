@@ -1,47 +1,136 @@
 package com.bq.daggerskeleton.sample.hardware;
 
 import android.graphics.SurfaceTexture;
-import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraDevice;
 import android.support.annotation.NonNull;
 import android.util.Size;
 import android.view.Surface;
 
-import com.bq.daggerskeleton.sample.hardware.session.SessionState;
+import com.bq.daggerskeleton.flux.ImmutableState;
+import com.bq.daggerskeleton.flux.StateSchema;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
-public class CameraState {
+public final class CameraState extends ImmutableState {
 
-   public boolean canOpenCamera = false;
-   public String selectedCamera = null;
-   @NonNull public Map<String, CameraCharacteristics> availableCameras = new HashMap<>();
+   public static final StateSchema<CameraState> SCHEMA = StateSchema.<CameraState>builder()
+         .field("canOpenCamera", s -> s.canOpenCamera)
+         .field("selectedCamera", s -> s.selectedCamera)
+         .field("cameraIds", s -> s.cameraIds)
+         .identityField("availableCameras", s -> s.availableCameras)
+         .identityField("previewTexture", s -> s.previewTexture)
+         .identityField("previewSurface", s -> s.previewSurface)
+         .field("previewSize", s -> s.previewSize)
+         .identityField("cameraDevice", s -> s.cameraDevice)
+         .build();
 
-   //TODO: This belong to another store
-   public SurfaceTexture previewTexture;
-   public Surface previewSurface;
-   public Size previewSize;
+   public final boolean canOpenCamera;
+   public final String selectedCamera;
+   /**
+    * Never modified, replaced as a whole when cameras are queried again.
+    */
+   @NonNull public final Map<String, CameraCharacteristics> availableCameras;
+   /**
+    * Ids of the available cameras, known from the last snapshot before they are queried again.
+    */
+   @NonNull public final List<String> cameraIds;
 
-   public CameraDevice cameraDevice;
+   //TODO: This belong to another store
+   public final SurfaceTexture previewTexture;
+   public final Surface previewSurface;
+   public final Size previewSize;
 
-   @NonNull
-   public SessionState sessionState = new SessionState(); //This is a good candidate for another store
+   public final CameraDevice cameraDevice;
 
    public CameraState() {
+      this(false, null, Collections.emptyMap(), Collections.emptyList(), null, null, null, null);
+   }
+
+   private CameraState(boolean canOpenCamera, String selectedCamera,
+                       @NonNull Map<String, CameraCharacteristics> availableCameras,
+                       @NonNull List<String> cameraIds,
+                       SurfaceTexture previewTexture, Surface previewSurface, Size previewSize,
+                       CameraDevice cameraDevice) {
+      this.canOpenCamera = canOpenCamera;
+      this.selectedCamera = selectedCamera;
+      this.availableCameras = availableCameras;
+      this.cameraIds = cameraIds;
+      this.previewTexture = previewTexture;
+      this.previewSurface = previewSurface;
+      this.previewSize = previewSize;
+      this.cameraDevice = cameraDevice;
+   }
+
+   public CameraState withCanOpenCamera(boolean canOpenCamera) {
+      if (this.canOpenCamera == canOpenCamera) return this;
+      return new CameraState(canOpenCamera, selectedCamera, availableCameras, cameraIds,
+            previewTexture, previewSurface, previewSize, cameraDevice);
+   }
+
+   public CameraState withCameras(@NonNull Map<String, CameraCharacteristics> availableCameras,
+                                  String selectedCamera) {
+      if (this.availableCameras == availableCameras && eq(this.selectedCamera, selectedCamera)) return this;
+      return new CameraState(canOpenCamera, selectedCamera, Collections.unmodifiableMap(availableCameras),
+            Collections.unmodifiableList(new ArrayList<>(availableCameras.keySet())),
+            previewTexture, previewSurface, previewSize, cameraDevice);
+   }
+
+   public CameraState withPreviewTexture(SurfaceTexture previewTexture, Surface previewSurface) {
+      if (this.previewTexture == previewTexture && this.previewSurface == previewSurface) return this;
+      return new CameraState(canOpenCamera, selectedCamera, availableCameras, cameraIds,
+            previewTexture, previewSurface, previewSize, cameraDevice);
+   }
+
+   public CameraState withPreviewSize(Size previewSize) {
+      if (eq(this.previewSize, previewSize)) return this;
+      return new CameraState(canOpenCamera, selectedCamera, availableCameras, cameraIds,
+            previewTexture, previewSurface, previewSize, cameraDevice);
+   }
+
+   public CameraState withCameraDevice(CameraDevice cameraDevice) {
+      if (this.cameraDevice == cameraDevice) return this;
+      return new CameraState(canOpenCamera, selectedCamera, availableCameras, cameraIds,
+            previewTexture, previewSurface, previewSize, cameraDevice);
+   }
+
+   /**
+    * Values restored from a {@link com.bq.daggerskeleton.flux.StateSnapshots snapshot}.
+    */
+   public CameraState withSnapshot(@NonNull List<String> cameraIds, String selectedCamera, Size previewSize) {
+      return new CameraState(canOpenCamera, selectedCamera, availableCameras,
+            Collections.unmodifiableList(cameraIds), previewTexture, previewSurface, previewSize, cameraDevice);
+   }
+
+   private static boolean eq(Object a, Object b) {
+      return a == null ? b == null : a.equals(b);
+   }
+
+   @Override protected int computeHashCode() {
+      int result = canOpenCamera ? 1 : 0;
+      result = 31 * result + (selectedCamera != null ? selectedCamera.hashCode() : 0);
+      result = 31 * result + System.identityHashCode(availableCameras);
+      result = 31 * result + cameraIds.hashCode();
+      result = 31 * result + System.identityHashCode(previewTexture);
+      result = 31 * result + System.identityHashCode(previewSurface);
+      result = 31 * result + (previewSize != null ? previewSize.hashCode() : 0);
+      result = 31 * result + System.identityHashCode(cameraDevice);
+      return result;
    }
 
-   @SuppressWarnings("IncompleteCopyConstructor")
-   public CameraState(CameraState other) {
-      this.canOpenCamera = other.canOpenCamera;
-      this.selectedCamera = other.selectedCamera;
-      this.availableCameras = other.availableCameras;
-      this.previewTexture = other.previewTexture;
-      this.previewSurface = other.previewSurface;
-      this.previewSize = other.previewSize;
-      this.cameraDevice = other.cameraDevice;
-      this.sessionState = new SessionState(other.sessionState); //Deep copy
+   @Override protected boolean contentEquals(ImmutableState o) {
+      CameraState other = (CameraState) o;
+      return canOpenCamera == other.canOpenCamera
+            && eq(selectedCamera, other.selectedCamera)
+            && availableCameras == other.availableCameras
+            && cameraIds.equals(other.cameraIds)
+            && previewTexture == other.previewTexture
+            && previewSurface == other.previewSurface
+            && eq(previewSize, other.previewSize)
+            && cameraDevice == other.cameraDevice;
    }
 
    @Override public String toString() {
@@ -49,10 +138,10 @@ public class CameraState {
             "canOpenCamera=" + canOpenCamera +
             ", selectedCamera='" + selectedCamera + '\'' +
             ", availableCameras=" + availableCameras +
+            ", cameraIds=" + cameraIds +
             ", previewTexture=" + previewTexture +
             ", previewSize=" + previewSize +
             ", cameraDevice=" + cameraDevice +
-            ", session=" + sessionState +
             ", previewSurface=" + previewSurface +
             '}';
    }
@@ -13,6 +13,11 @@ import android.util.Size;
 import android.view.Surface;
 
 import com.bq.daggerskeleton.flux.Dispatcher;
+import com.bq.daggerskeleton.flux.OnAction;
+import com.bq.daggerskeleton.flux.Reducer;
+import com.bq.daggerskeleton.flux.StateCodec;
+import com.bq.daggerskeleton.flux.StateSchema;
+import com.bq.daggerskeleton.flux.StateSnapshots;
 import com.bq.daggerskeleton.flux.Store;
 import com.bq.daggerskeleton.sample.app.App;
 import com.bq.daggerskeleton.sample.app.AppScope;
@@ -22,7 +27,9 @@ import com.bq.daggerskeleton.sample.preview.PreviewSurfaceBufferCalculatedAction
 import com.bq.daggerskeleton.sample.preview.PreviewSurfaceDestroyedAction;
 import com.bq.daggerskeleton.sample.preview.PreviewSurfaceReadyAction;
 
-import java.util.Collections;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
@@ -32,6 +39,7 @@ import javax.inject.Inject;
 import dagger.Module;
 import dagger.Provides;
 import dagger.multibindings.IntoSet;
+import io.reactivex.Flowable;
 import timber.log.Timber;
 
 
@@ -45,59 +53,98 @@ public class CameraStore extends Store<CameraState> {
    private final Semaphore cameraLock = new Semaphore(1);
    private static final int CAMERA_LOCK_TIMEOUT = 3000; //3s
 
+   private final Flowable<Boolean> cameraOpen = select(s -> s.cameraDevice != null);
+
+   static final Reducer<CameraState, CameraPermissionChanged> PERMISSION_CHANGED =
+         (state, a) -> state.withCanOpenCamera(a.granted);
+   //Nothing to do here, surface auto releases, don't call release on it
+   static final Reducer<CameraState, PreviewSurfaceDestroyedAction> PREVIEW_SURFACE_DESTROYED =
+         (state, a) -> state.withPreviewTexture(null, state.previewSurface);
+   static final Reducer<CameraState, PreviewSurfaceBufferCalculatedAction> PREVIEW_BUFFER_CALCULATED =
+         (state, a) -> state.withPreviewSize(a.size);
+   static final Reducer<CameraState, CameraOpenedAction> CAMERA_OPENED =
+         (state, a) -> state.withCameraDevice(a.camera);
+
+   /**
+    * Cameras and preview size survive the process, the rest is only valid while the camera is open.
+    */
+   static final StateCodec<CameraState> SNAPSHOT_CODEC = new StateCodec<CameraState>() {
+      @Override public void encode(CameraState state, ByteBuffer out) {
+         StateSnapshots.putString(out, state.selectedCamera);
+         out.putInt(state.cameraIds.size());
+         for (String id : state.cameraIds) {
+            StateSnapshots.putString(out, id);
+         }
+         Size size = state.previewSize;
+         out.putInt(size != null ? size.getWidth() : 0);
+         out.putInt(size != null ? size.getHeight() : 0);
+      }
+
+      @Override public CameraState decode(CameraState state, ByteBuffer in) {
+         String selectedCamera = StateSnapshots.getString(in);
+         int count = in.getInt();
+         ArrayList<String> cameraIds = new ArrayList<>(count);
+         for (int i = 0; i < count; i++) {
+            cameraIds.add(StateSnapshots.getString(in));
+         }
+         int width = in.getInt();
+         int height = in.getInt();
+         return state.withSnapshot(cameraIds, selectedCamera, width > 0 ? new Size(width, height) : null);
+      }
+   };
+
    @Override protected CameraState initialState() {
       return new CameraState();
    }
 
+   @Override protected StateCodec<CameraState> snapshotCodec() {
+      return SNAPSHOT_CODEC;
+   }
+
+   @Override public StateSchema<CameraState> stateSchema() {
+      return CameraState.SCHEMA;
+   }
+
    @Inject CameraStore(App app, Handler backgroundHandler) {
       this.app = app;
       this.cameraManager = ((CameraManager) app.getSystemService(Context.CAMERA_SERVICE));
       this.backgroundHandler = backgroundHandler;
 
-      Dispatcher.subscribe(CameraPermissionChanged.class, permissionChanged -> {
-         CameraState newState = new CameraState(state());
-         newState.canOpenCamera = permissionChanged.granted;
-         setState(newState);
-      });
+      addReducer(CameraPermissionChanged.class, PERMISSION_CHANGED);
+      addReducer(PreviewSurfaceDestroyedAction.class, PREVIEW_SURFACE_DESTROYED);
+      addReducer(PreviewSurfaceBufferCalculatedAction.class, PREVIEW_BUFFER_CALCULATED);
+      addReducer(CameraOpenedAction.class, CAMERA_OPENED);
 
-      Dispatcher.subscribe(OpenCameraAction.class, a -> {
-         if (state().cameraDevice == null) setState(openCamera(state()));
-      });
+      //Reducers with side effects on the camera
+      route();
+   }
 
-      Dispatcher.subscribe(CloseCameraAction.class, a -> setState(closeCamera(state())));
+   @OnAction
+   void onOpenCamera(OpenCameraAction a) {
+      if (state().cameraDevice == null) setState(openCamera(state()));
+   }
 
-      Dispatcher.subscribe(PreviewSurfaceDestroyedAction.class, a -> {
-         CameraState newState = new CameraState(state());
-         if (newState.previewTexture != null) {
-            //Nothing to do here, surface auto releases, don't call release on it
-            newState.previewTexture = null;
-         }
-         setState(newState);
-      });
-
-      Dispatcher.subscribe(PreviewSurfaceReadyAction.class, a -> {
-         CameraState newState = new CameraState(state());
-         newState.previewTexture = a.surfaceTexture;
-         newState.previewSurface = new Surface(a.surfaceTexture);
-         setState(newState);
-      });
-
-      Dispatcher.subscribe(PreviewSurfaceBufferCalculatedAction.class, a -> {
-         CameraState newState = new CameraState(state());
-         newState.previewSize = a.size;
-         setState(newState);
-      });
-
-      Dispatcher.subscribe(CameraOpenedAction.class, a -> {
-         CameraState newState = new CameraState(state());
-         newState.cameraDevice = a.camera;
-         setState(newState);
-      });
+   @OnAction
+   void onCloseCamera(CloseCameraAction a) {
+      setState(closeCamera(state()));
+   }
+
+   @OnAction
+   void onPreviewSurfaceReady(PreviewSurfaceReadyAction a) {
+      if (a.surfaceTexture == state().previewTexture) return; //Same texture, keep its surface
+      setState(state().withPreviewTexture(a.surfaceTexture, new Surface(a.surfaceTexture)));
+   }
+
+   /**
+    * @return Shared flowable of the camera being open or not, starting with the current value.
+    */
+   public Flowable<Boolean> cameraOpen() {
+      return cameraOpen;
    }
 
    private CameraState openCamera(CameraState state) {
       if (!state().canOpenCamera) return state;
-      CameraState newState = new CameraState(state);
+      CameraState newState = state;
 
       try {
          if (!cameraLock.tryAcquire(CAMERA_LOCK_TIMEOUT, TimeUnit.MILLISECONDS)) {
@@ -107,8 +154,13 @@ public class CameraStore extends Store<CameraState> {
          }
          Timber.v("Opening camera");
 
-         populateCameraMap(newState.availableCameras);
-         newState.selectedCamera = selectDefaultCamera(newState.availableCameras);
+         Map<String, CameraCharacteristics> cameras = new LinkedHashMap<>();
+         populateCameraMap(cameras);
+         //Keep the camera from the last run if it is still there
+         String selectedCamera = cameras.containsKey(newState.selectedCamera)
+               ? newState.selectedCamera
+               : selectDefaultCamera(cameras);
+         newState = newState.withCameras(cameras, selectedCamera);
          try {
             //noinspection MissingPermission
             cameraManager.openCamera(newState.selectedCamera, new CameraDevice.StateCallback() {
@@ -137,7 +189,7 @@ public class CameraStore extends Store<CameraState> {
    }
 
    private CameraState closeCamera(CameraState state) {
-      CameraState newState = new CameraState(state);
+      CameraState newState = state;
       try {
          if (!cameraLock.tryAcquire(CAMERA_LOCK_TIMEOUT, TimeUnit.MILLISECONDS)) {
             // STOPSHIP: 16/11/2016
@@ -147,7 +199,7 @@ public class CameraStore extends Store<CameraState> {
 
          if (newState.cameraDevice != null) {
             newState.cameraDevice.close();
-            newState.cameraDevice = null;
+            newState = newState.withCameraDevice(null);
          }
 
       } catch (InterruptedException e) {
@@ -0,0 +1,48 @@
+package com.bq.daggerskeleton.sample.hardware.session;
+
+import android.support.annotation.Nullable;
+
+import com.bq.daggerskeleton.flux.ImmutableState;
+
+import org.jetbrains.annotations.NotNull;
+
+public final class CameraSessionState extends ImmutableState {
+
+   public final boolean cameraOpen;
+   public final boolean previewReady;
+   @NotNull public final SessionState.Status sessionStatus;
+   @Nullable public final Throwable error;
+
+   public CameraSessionState(boolean cameraOpen, boolean previewReady,
+                             @NotNull SessionState.Status sessionStatus, @Nullable Throwable error) {
+      this.cameraOpen = cameraOpen;
+      this.previewReady = previewReady;
+      this.sessionStatus = sessionStatus;
+      this.error = error;
+   }
+
+   @Override protected int computeHashCode() {
+      int result = cameraOpen ? 1 : 0;
+      result = 31 * result + (previewReady ? 1 : 0);
+      result = 31 * result + sessionStatus.hashCode();
+      result = 31 * result + System.identityHashCode(error);
+      return result;
+   }
+
+   @Override protected boolean contentEquals(ImmutableState o) {
+      CameraSessionState other = (CameraSessionState) o;
+      return cameraOpen == other.cameraOpen
+            && previewReady == other.previewReady
+            && sessionStatus == other.sessionStatus
+            && error == other.error;
+   }
+
+   @Override public String toString() {
+      return "CameraSessionState{" +
+            "cameraOpen=" + cameraOpen +
+            ", previewReady=" + previewReady +
+            ", sessionStatus=" + sessionStatus +
+            ", error=" + error +
+            '}';
+   }
+}
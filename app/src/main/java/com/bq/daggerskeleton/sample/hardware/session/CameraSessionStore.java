@@ -0,0 +1,47 @@
+package com.bq.daggerskeleton.sample.hardware.session;
+
+import com.bq.daggerskeleton.flux.DerivedStore;
+import com.bq.daggerskeleton.flux.Store;
+import com.bq.daggerskeleton.sample.app.AppScope;
+import com.bq.daggerskeleton.sample.hardware.CameraState;
+import com.bq.daggerskeleton.sample.hardware.CameraStore;
+
+import javax.inject.Inject;
+
+import dagger.Module;
+import dagger.Provides;
+import dagger.multibindings.IntoSet;
+
+/**
+ * Camera and session status together, updated once per action after both stores settled.
+ */
+@AppScope
+public class CameraSessionStore extends DerivedStore<CameraSessionState> {
+
+   private final CameraStore cameraStore;
+   private final SessionStore sessionStore;
+
+   @Inject CameraSessionStore(CameraStore cameraStore, SessionStore sessionStore) {
+      super(cameraStore, sessionStore);
+      this.cameraStore = cameraStore;
+      this.sessionStore = sessionStore;
+   }
+
+   @Override protected CameraSessionState derive() {
+      CameraState camera = cameraStore.state();
+      SessionState session = sessionStore.state();
+      return new CameraSessionState(
+            camera.cameraDevice != null,
+            camera.previewTexture != null && camera.previewSize != null,
+            session.status,
+            session.error);
+   }
+
+   @Module
+   public static class CameraSessionModule {
+      @Provides @AppScope @IntoSet
+      static Store<?> provideCameraSessionStoreToSet(CameraSessionStore store) {
+         return store;
+      }
+   }
+}
@@ -3,22 +3,54 @@ package com.bq.daggerskeleton.sample.hardware.session;
 
 import android.hardware.camera2.CameraCaptureSession;
 import android.support.annotation.Nullable;
+import android.util.Size;
+
+import com.bq.daggerskeleton.flux.ImmutableState;
+import com.bq.daggerskeleton.flux.StateSchema;
 
 import org.jetbrains.annotations.NotNull;
 
-public class SessionState {
+public final class SessionState extends ImmutableState {
+
+   public static final StateSchema<SessionState> SCHEMA = StateSchema.<SessionState>builder()
+         .identityField("session", s -> s.session)
+         .field("status", s -> s.status)
+         .field("error", s -> s.error)
+         .field("previewSize", s -> s.previewSize)
+         .build();
 
-   public CameraCaptureSession session = null;
-   @NotNull public Status status = Status.NO_SESSION;
-   @Nullable public Throwable error = null;
+   @Nullable public final CameraCaptureSession session;
+   @NotNull public final Status status;
+   @Nullable public final Throwable error;
+   /**
+    * Preview buffer size the session was configured with.
+    */
+   @Nullable public final Size previewSize;
 
    public SessionState() {
+      this(null, Status.NO_SESSION, null, null);
+   }
+
+   private SessionState(@Nullable CameraCaptureSession session, @NotNull Status status, @Nullable Throwable error,
+                        @Nullable Size previewSize) {
+      this.session = session;
+      this.status = status;
+      this.error = error;
+      this.previewSize = previewSize;
+   }
+
+   public SessionState withSession(@Nullable CameraCaptureSession session, @NotNull Status status,
+                                   @Nullable Throwable error) {
+      if (this.session == session && this.status == status && this.error == error) return this;
+      return new SessionState(session, status, error, previewSize);
    }
 
-   public SessionState(SessionState other) {
-      this.session = other.session;
-      this.status = other.status;
-      this.error = other.error;
+   public SessionState withStatus(@NotNull Status status) {
+      return withSession(session, status, error);
+   }
+
+   public SessionState withOpening(@NotNull Size previewSize) {
+      return new SessionState(session, Status.OPENING, error, previewSize);
    }
 
    public enum Status {
@@ -33,11 +65,26 @@ public class SessionState {
       }
    }
 
+   @Override protected int computeHashCode() {
+      int result = System.identityHashCode(session);
+      result = 31 * result + status.hashCode();
+      result = 31 * result + System.identityHashCode(error);
+      result = 31 * result + (previewSize != null ? previewSize.hashCode() : 0);
+      return result;
+   }
+
+   @Override protected boolean contentEquals(ImmutableState o) {
+      SessionState other = (SessionState) o;
+      return session == other.session && status == other.status && error == other.error
+            && (previewSize == null ? other.previewSize == null : previewSize.equals(other.previewSize));
+   }
+
    @Override public String toString() {
       return "SessionState{" +
             "session=" + session +
             ", status=" + status +
             ", error=" + error +
+            ", previewSize=" + previewSize +
             '}';
    }
 }
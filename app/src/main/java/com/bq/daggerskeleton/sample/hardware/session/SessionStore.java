@@ -9,6 +9,9 @@ import android.support.annotation.NonNull;
 import android.util.Size;
 
 import com.bq.daggerskeleton.flux.Dispatcher;
+import com.bq.daggerskeleton.flux.OnAction;
+import com.bq.daggerskeleton.flux.Reducer;
+import com.bq.daggerskeleton.flux.StateSchema;
 import com.bq.daggerskeleton.flux.Store;
 import com.bq.daggerskeleton.sample.app.AppScope;
 import com.bq.daggerskeleton.sample.hardware.CameraState;
@@ -27,48 +30,82 @@ import timber.log.Timber;
 @AppScope
 public class SessionStore extends Store<SessionState> {
 
+   private static final int MAX_SESSION_RETRIES = 3;
+   private static final Size NOT_READY = new Size(0, 0);
+
    private final CameraStore cameraStore;
    private final Handler backgroundHandler;
+   /** Errors since the session was last ready, only touched in the store thread. */
+   private int sessionErrors = 0;
+
+   static final Reducer<SessionState, SessionChangedAction> SESSION_CHANGED =
+         (state, a) -> state.withSession(a.session, a.status, a.error);
 
    @Override protected SessionState initialState() {
       return new SessionState();
    }
 
+   @Override public StateSchema<SessionState> stateSchema() {
+      return SessionState.SCHEMA;
+   }
+
    @Inject SessionStore(CameraStore cameraStore, Handler backgroundHandler) {
       this.cameraStore = cameraStore;
       this.backgroundHandler = backgroundHandler;
 
-      Dispatcher.subscribe(Dispatcher.VERY_HIGH_PRIORITY,
-            CloseCameraAction.class, a -> setState(releaseSession(state())));
-
-      Dispatcher.subscribe(SessionChangedAction.class, a -> {
-         SessionState newState = new SessionState(state());
-         newState.session = a.session;
-         newState.status = a.status;
-         newState.error = a.error;
-         setState(newState);
-      });
+      route();
+      addReducer(SessionChangedAction.class, SESSION_CHANGED);
+
+      //Only try again when the preconditions or the preview size change, not on every camera state change
+      this.cameraStore.select(s -> s.cameraDevice != null && s.previewTexture != null && s.previewSize != null
+            ? s.previewSize : NOT_READY)
+            .filter(size -> size != NOT_READY)
+            .subscribe(size -> {
+               runOnStoreThread(() -> {
+                  sessionErrors = 0;
+                  tryToStartSession();
+               });
+            });
+
+      //The preconditions may still be met when the session fails, retry a few times
+      select(s -> s.status)
+            .filter(SessionState.Status::isTerminal)
+            .subscribe(status -> {
+               runOnStoreThread(() -> {
+                  sessionErrors = status == SessionState.Status.ERROR ? sessionErrors + 1 : 0;
+                  if (sessionErrors <= MAX_SESSION_RETRIES) tryToStartSession();
+               });
+            });
+   }
 
-      this.cameraStore.flowable().subscribe(a -> {
-         tryToStartSession();
-      });
+   @OnAction(priority = Dispatcher.VERY_HIGH_PRIORITY)
+   void onCloseCamera(CloseCameraAction a) {
+      setState(releaseSession(state()));
    }
 
    /**
     * Start the session if preconditions are met. For this example, the preview surface is ready and
-    * the camera opened
+    * the camera opened. A ready session is restarted if the preview size changed since it was
+    * configured, the size restored from a snapshot may not match the one calculated for the preview.
     */
    private void tryToStartSession() {
       //Preconditions
       CameraState cameraState = cameraStore.state();
 
-      if (cameraState.sessionState.status.isReadyOrOpening()
-            || cameraState.previewTexture == null
+      if (cameraState.previewTexture == null
             || cameraState.cameraDevice == null
             || cameraState.previewSize == null) {
          return;
       }
 
+      SessionState sessionState = state();
+      if (sessionState.status == SessionState.Status.OPENING) return; //Checked again once configured
+      if (sessionState.status == SessionState.Status.READY) {
+         if (cameraState.previewSize.equals(sessionState.previewSize)) return;
+         Timber.d("Preview size changed to %s, restarting the session", cameraState.previewSize);
+         setState(releaseSession(sessionState));
+      }
+
       try {
          CaptureRequest.Builder request;
          try {
@@ -116,9 +153,7 @@ public class SessionStore extends Store<SessionState> {
                }, backgroundHandler);
 
          //Now we are opening
-         SessionState newState = new SessionState(state());
-         newState.status = SessionState.Status.OPENING;
-         setState(newState);
+         setState(state().withOpening(previewSize));
 
       } catch (IllegalStateException | CameraAccessException e) {
          Timber.e(e);
@@ -126,7 +161,7 @@ public class SessionStore extends Store<SessionState> {
    }
 
    private SessionState releaseSession(SessionState state) {
-      SessionState newState = new SessionState(state);
+      SessionState newState = state;
       if (newState.status == SessionState.Status.READY) {
          try {
             newState.session.close();
@@ -136,9 +171,7 @@ public class SessionStore extends Store<SessionState> {
             //There is no way to check the camera status other than capturing the exception
             Timber.e(e, "Error trying to release the session");
          }
-         newState.session = null;
-         newState.error = null;
-         newState.status = SessionState.Status.NO_SESSION;
+         newState = newState.withSession(null, SessionState.Status.NO_SESSION, null);
       }
       return newState;
    }
@@ -38,10 +38,10 @@ public class TakePhotoPlugin extends SimplePlugin {
    }
 
    @Override public void onCreate(@Nullable Bundle savedInstanceState) {
-      track(cameraStore.flowable()
-            .filter(s -> s.cameraDevice != null)
+      track(cameraStore.cameraOpen()
+            .filter(open -> open)
             .take(1)
-            .subscribe(s -> {
+            .subscribe(open -> {
                View.inflate(activity, R.layout.shutter_button, container);
             }));
    }
@@ -26,8 +26,8 @@ import com.bq.daggerskeleton.sample.hardware.CameraState;
 import com.bq.daggerskeleton.sample.hardware.CameraStore;
 import com.bq.daggerskeleton.sample.hardware.CloseCameraAction;
 import com.bq.daggerskeleton.sample.hardware.OpenCameraAction;
+import com.bq.daggerskeleton.sample.hardware.session.CameraSessionStore;
 import com.bq.daggerskeleton.sample.hardware.session.SessionState;
-import com.bq.daggerskeleton.sample.hardware.session.SessionStore;
 import com.bq.daggerskeleton.sample.views.AutoFitTextureView;
 
 import java.util.Arrays;
@@ -49,18 +49,18 @@ public class PreviewPlugin extends SimplePlugin {
 
    private final Activity activity;
    private final CameraStore cameraStore;
-   private final SessionStore sessionStore;
+   private final CameraSessionStore cameraSessionStore;
    private final RootViewControllerPlugin rootViewControllerPlugin;
    private ViewGroup container;
    @BindView(R.id.preview_texture) AutoFitTextureView textureView;
 
    @Inject PreviewPlugin(Activity activity,
                          CameraStore cameraStore,
-                         SessionStore sessionStore,
+                         CameraSessionStore cameraSessionStore,
                          RootViewControllerPlugin rootViewControllerPlugin) {
       this.activity = activity;
       this.cameraStore = cameraStore;
-      this.sessionStore = sessionStore;
+      this.cameraSessionStore = cameraSessionStore;
       this.rootViewControllerPlugin = rootViewControllerPlugin;
    }
 
@@ -72,16 +72,18 @@ public class PreviewPlugin extends SimplePlugin {
          @Override
          public void onSurfaceTextureAvailable(SurfaceTexture surface, int width, int height) {
             applyRatio();
-            Dispatcher.dispatch(new PreviewSurfaceReadyAction(surface));
-
-            //Now we wait for camera to open to calculate the appropriate buffer size
-            track(cameraStore.flowable()
-                  .startWith(cameraStore.state()) //It might have opened already
-                  .filter(s -> s.cameraDevice != null)
-                  .take(1)
-                  .subscribe(s -> {
-                     Dispatcher.dispatch(new PreviewSurfaceBufferCalculatedAction(calculateBufferSize()));
-                  }));
+            //If the camera is already open both actions go out together, publish a single state change
+            Dispatcher.batch(() -> {
+               Dispatcher.dispatch(new PreviewSurfaceReadyAction(surface));
+
+               //Now we wait for camera to open to calculate the appropriate buffer size
+               track(cameraStore.cameraOpen() //It might have opened already
+                     .filter(open -> open)
+                     .take(1)
+                     .subscribe(open -> {
+                        Dispatcher.dispatch(new PreviewSurfaceBufferCalculatedAction(calculateBufferSize()));
+                     }));
+            });
          }
 
          @Override
@@ -100,11 +102,11 @@ public class PreviewPlugin extends SimplePlugin {
       });
 
       track(
-            sessionStore.flowable()
-                  .filter(s -> s.status == SessionState.Status.ERROR)
-                  .subscribe(s -> {
+            cameraSessionStore.select(s -> s.sessionStatus == SessionState.Status.ERROR)
+                  .filter(error -> error)
+                  .subscribe(error -> {
                      new AlertDialog.Builder(activity)
-                           .setMessage(Log.getStackTraceString(s.error))
+                           .setMessage(Log.getStackTraceString(cameraSessionStore.state().error))
                            .setCancelable(false)
                            .setPositiveButton("OK :(", (dialog, which) -> dialog.dismiss())
                            .show();
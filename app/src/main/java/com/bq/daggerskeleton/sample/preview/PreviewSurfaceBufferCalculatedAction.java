@@ -3,8 +3,23 @@ package com.bq.daggerskeleton.sample.preview;
 import android.util.Size;
 
 import com.bq.daggerskeleton.flux.Action;
+import com.bq.daggerskeleton.flux.ActionCodec;
+
+import java.nio.ByteBuffer;
 
 public final class PreviewSurfaceBufferCalculatedAction implements Action {
+
+   public static final ActionCodec<PreviewSurfaceBufferCalculatedAction> CODEC = new ActionCodec<PreviewSurfaceBufferCalculatedAction>() {
+      @Override public void encode(PreviewSurfaceBufferCalculatedAction action, ByteBuffer out) {
+         out.putInt(action.size.getWidth());
+         out.putInt(action.size.getHeight());
+      }
+
+      @Override public PreviewSurfaceBufferCalculatedAction decode(ByteBuffer in) {
+         return new PreviewSurfaceBufferCalculatedAction(new Size(in.getInt(), in.getInt()));
+      }
+   };
+
    public final Size size;
 
    public PreviewSurfaceBufferCalculatedAction(Size size) {
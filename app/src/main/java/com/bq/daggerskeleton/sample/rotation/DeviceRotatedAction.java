@@ -1,9 +1,23 @@
 package com.bq.daggerskeleton.sample.rotation;
 
 
-import com.bq.daggerskeleton.flux.Action;
+import com.bq.daggerskeleton.flux.ActionCodec;
+import com.bq.daggerskeleton.flux.CoalescableAction;
+
+import java.nio.ByteBuffer;
+
+public final class DeviceRotatedAction implements CoalescableAction {
+
+   public static final ActionCodec<DeviceRotatedAction> CODEC = new ActionCodec<DeviceRotatedAction>() {
+      @Override public void encode(DeviceRotatedAction action, ByteBuffer out) {
+         out.putInt(action.deviceAccumulatedRotation);
+      }
+
+      @Override public DeviceRotatedAction decode(ByteBuffer in) {
+         return new DeviceRotatedAction(in.getInt());
+      }
+   };
 
-public final class DeviceRotatedAction implements Action {
    public final int deviceAccumulatedRotation;
 
    public DeviceRotatedAction(int deviceAccumulatedRotation) {
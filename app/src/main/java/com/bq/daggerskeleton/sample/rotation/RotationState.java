@@ -1,17 +1,44 @@
 package com.bq.daggerskeleton.sample.rotation;
 
 
-public final class RotationState {
+import com.bq.daggerskeleton.flux.ImmutableState;
+import com.bq.daggerskeleton.flux.StateSchema;
 
-   public int deviceAccumulatedRotation = 0;
-   public int deviceAbsoluteRotation = 0;
+public final class RotationState extends ImmutableState {
+
+   public static final StateSchema<RotationState> SCHEMA = StateSchema.<RotationState>builder()
+         .intField("deviceAccumulatedRotation", s -> s.deviceAccumulatedRotation)
+         .intField("deviceAbsoluteRotation", s -> s.deviceAbsoluteRotation)
+         .build();
+
+   public final int deviceAccumulatedRotation;
+   public final int deviceAbsoluteRotation;
 
    public RotationState() {
+      this(0, 0);
+   }
+
+   private RotationState(int deviceAccumulatedRotation, int deviceAbsoluteRotation) {
+      this.deviceAccumulatedRotation = deviceAccumulatedRotation;
+      this.deviceAbsoluteRotation = deviceAbsoluteRotation;
+   }
+
+   public RotationState withRotation(int deviceAccumulatedRotation, int deviceAbsoluteRotation) {
+      if (this.deviceAccumulatedRotation == deviceAccumulatedRotation
+            && this.deviceAbsoluteRotation == deviceAbsoluteRotation) {
+         return this;
+      }
+      return new RotationState(deviceAccumulatedRotation, deviceAbsoluteRotation);
+   }
+
+   @Override protected int computeHashCode() {
+      return 31 * deviceAccumulatedRotation + deviceAbsoluteRotation;
    }
 
-   public RotationState(RotationState other) {
-      this.deviceAccumulatedRotation = other.deviceAccumulatedRotation;
-      this.deviceAbsoluteRotation = other.deviceAbsoluteRotation;
+   @Override protected boolean contentEquals(ImmutableState o) {
+      RotationState other = (RotationState) o;
+      return deviceAccumulatedRotation == other.deviceAccumulatedRotation
+            && deviceAbsoluteRotation == other.deviceAbsoluteRotation;
    }
 
    @Override public String toString() {
@@ -6,6 +6,8 @@ import android.view.OrientationEventListener;
 import com.bq.daggerskeleton.sample.app.App;
 import com.bq.daggerskeleton.sample.app.AppScope;
 import com.bq.daggerskeleton.flux.Dispatcher;
+import com.bq.daggerskeleton.flux.Reducer;
+import com.bq.daggerskeleton.flux.StateSchema;
 import com.bq.daggerskeleton.flux.Store;
 import com.bq.daggerskeleton.sample.app.LifeCycleAction;
 
@@ -26,45 +28,44 @@ public class RotationStore extends Store<RotationState> {
 
    private final OrientationHandler orientationEventListener;
 
+   static final Reducer<RotationState, DeviceRotatedAction> DEVICE_ROTATED = (state, a) -> {
+      int deviceAbsoluteRotation = a.deviceAccumulatedRotation;
+      while (deviceAbsoluteRotation < 0) {
+         deviceAbsoluteRotation += 360;
+      }
+      deviceAbsoluteRotation = deviceAbsoluteRotation % 360;
+      return state.withRotation(a.deviceAccumulatedRotation, deviceAbsoluteRotation);
+   };
+
    @Override protected RotationState initialState() {
       return new RotationState();
    }
 
+   @Override public StateSchema<RotationState> stateSchema() {
+      return RotationState.SCHEMA;
+   }
+
    @Inject RotationStore(App app) {
 
       orientationEventListener = new OrientationHandler(app);
 
-      Dispatcher.subscribe(LifeCycleAction.class, a -> {
-         switch (a.event) {
-            case ON_RESUME:
-               orientationEventListener.skipNextInvalid();
-               break;
-            //Reset all status in both cases so views are easier to implement (no corner cases)
-            case ON_CREATE:
-               orientationEventListener.reset();
-               setState(initialState()); //Reset
-               orientationEventListener.enable();
-               break;
-            case ON_DESTROY:
-               orientationEventListener.reset();
-               setState(initialState()); //Reset
-               orientationEventListener.disable();
-               break;
-         }
-      });
-
-      Dispatcher.subscribe(DeviceRotatedAction.class, a -> {
-         RotationState newState = new RotationState(state());
-         newState.deviceAccumulatedRotation = a.deviceAccumulatedRotation;
-         newState.deviceAbsoluteRotation = newState.deviceAccumulatedRotation;
+      subscribe(LifeCycleAction.class, LifeCycleAction.Event.ON_RESUME,
+            a -> orientationEventListener.skipNextInvalid());
 
-         while (newState.deviceAbsoluteRotation < 0) {
-            newState.deviceAbsoluteRotation += 360;
-         }
-         newState.deviceAbsoluteRotation = newState.deviceAbsoluteRotation % 360;
+      //Reset all status in both cases so views are easier to implement (no corner cases)
+      subscribe(LifeCycleAction.class, LifeCycleAction.Event.ON_CREATE, a -> {
+         orientationEventListener.reset();
+         setState(initialState()); //Reset
+         orientationEventListener.enable();
+      });
 
-         setState(newState);
+      subscribe(LifeCycleAction.class, LifeCycleAction.Event.ON_DESTROY, a -> {
+         orientationEventListener.reset();
+         setState(initialState()); //Reset
+         orientationEventListener.disable();
       });
+
+      addReducer(DeviceRotatedAction.class, DEVICE_ROTATED);
    }
 
    @Override public Flowable<RotationState> flowable() {
@@ -131,7 +132,8 @@ public class RotationStore extends Store<RotationState> {
             accumulatedRotation += rotationSteps * 90;
             lastBucket = bucket;
             lastOrientation = orientation;
-            Dispatcher.dispatch(new DeviceRotatedAction(accumulatedRotation));
+            //Sensor events come in bursts, queued rotations collapse to the latest one
+            Dispatcher.dispatchOnUi(new DeviceRotatedAction(accumulatedRotation));
          }
       }
 
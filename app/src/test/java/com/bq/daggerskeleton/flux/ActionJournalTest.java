@@ -0,0 +1,131 @@
+package com.bq.daggerskeleton.flux;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+public class ActionJournalTest {
+
+   @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+   private final ActionCodecs codecs = new ActionCodecs()
+         .register(1, EmptyAction.class, EmptyAction::new)
+         .register(2, ValueAction.class, new ActionCodec<ValueAction>() {
+            @Override public void encode(ValueAction action, ByteBuffer out) {
+               out.putInt(action.value);
+            }
+
+            @Override public ValueAction decode(ByteBuffer in) {
+               return new ValueAction(in.getInt());
+            }
+         });
+
+   @Before
+   public void before() {
+      Dispatcher.clearSubscriptions();
+   }
+
+   @After
+   public void after() {
+      Dispatcher.clearSubscriptions();
+   }
+
+   @Test
+   public void testRecordAndReplay() throws Exception {
+      File file = folder.newFile();
+      ActionJournal journal = new ActionJournal(file, 4096, codecs);
+      Dispatcher.addTraceSink(journal);
+
+      Dispatcher.dispatch(new ValueAction(1));
+      Dispatcher.dispatch(new EmptyAction());
+      Dispatcher.dispatch(new UnknownAction());
+      Dispatcher.dispatch(new ValueAction(2));
+      Assert.assertEquals(1, journal.skipped());
+
+      //Fresh dispatcher
+      Dispatcher.clearSubscriptions();
+      ArrayList<String> replayed = new ArrayList<>();
+      Dispatcher.subscribe(Action.class, a -> replayed.add(a.toString()));
+
+      JournalReplayer.Result result = new JournalReplayer(codecs).replay(file, false);
+
+      Assert.assertEquals(3, result.actions);
+      Assert.assertArrayEquals(new String[]{"1", "empty", "2"}, replayed.toArray());
+   }
+
+   @Test
+   public void testNestedActionsAreDispatchedOnceOnReplay() throws Exception {
+      File file = folder.newFile();
+      ActionJournal journal = new ActionJournal(file, 4096, codecs);
+      Dispatcher.addTraceSink(journal);
+      subscribeNestedDispatch();
+
+      Dispatcher.dispatch(new ValueAction(1));
+      Dispatcher.dispatch(new ValueAction(2));
+
+      //Fresh dispatcher with the same subscribers
+      Dispatcher.clearSubscriptions();
+      ArrayList<String> replayed = new ArrayList<>();
+      Dispatcher.subscribe(Action.class, a -> replayed.add(a.toString()));
+      subscribeNestedDispatch();
+      JournalReplayer.Result result = new JournalReplayer(codecs).replay(file, false);
+
+      Assert.assertEquals(2, result.actions);
+      Assert.assertEquals(1, result.nested);
+      Assert.assertArrayEquals(new String[]{"1", "empty", "2"}, replayed.toArray());
+   }
+
+   @Test
+   public void testRecordingStopsWhenFull() throws Exception {
+      File file = folder.newFile();
+      //Header plus room for two entries with a 4 bytes payload
+      ActionJournal journal = new ActionJournal(file, 6 + 2 * (ActionJournal.ENTRY_HEADER_SIZE + 4) + 10, codecs);
+      Dispatcher.addTraceSink(journal);
+
+      for (int i = 0; i < 5; i++) {
+         Dispatcher.dispatch(new ValueAction(i));
+      }
+      Assert.assertTrue(journal.isFull());
+
+      Dispatcher.clearSubscriptions();
+      ArrayList<String> replayed = new ArrayList<>();
+      Dispatcher.subscribe(ValueAction.class, a -> replayed.add(a.toString()));
+      new JournalReplayer(codecs).replay(file, false);
+
+      Assert.assertArrayEquals(new String[]{"0", "1"}, replayed.toArray());
+   }
+
+   private static void subscribeNestedDispatch() {
+      Dispatcher.subscribe(ValueAction.class, a -> {
+         if (a.value == 1) Dispatcher.dispatch(new EmptyAction());
+      });
+   }
+
+   private static final class EmptyAction implements Action {
+      @Override public String toString() {
+         return "empty";
+      }
+   }
+
+   private static final class UnknownAction implements Action {
+   }
+
+   private static final class ValueAction implements Action {
+      final int value;
+
+      ValueAction(int value) {
+         this.value = value;
+      }
+
+      @Override public String toString() {
+         return String.valueOf(value);
+      }
+   }
+}
@@ -0,0 +1,121 @@
+package com.bq.daggerskeleton.flux;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Rough JVM measurement of {@link ActionQueue} throughput and enqueue-to-consume latency with
+ * several producer threads and a single consumer, the way {@link Dispatcher#dispatchOnUi(Action)}
+ * uses it. Numbers are printed, only ordering is asserted.
+ */
+public class ActionQueueBenchmark {
+
+   private static final int[] PRODUCER_COUNTS = {1, 4, 16};
+   private static final int ACTIONS_PER_RUN = 1_600_000;
+
+   @Before
+   public void before() {
+      Benchmarks.assumeEnabled();
+   }
+
+   @Test
+   public void throughputAndLatencyByProducerCount() throws Exception {
+      System.out.println("┌ ActionQueue, single consumer");
+      for (int producers : PRODUCER_COUNTS) {
+         run(producers); //Warmup
+         Result result = run(producers);
+         System.out.println(String.format(Locale.US,
+               "├ %2d producers: %6.2f M actions/s, latency p50 %6d ns, p99 %8d ns, max %9d ns",
+               producers, result.throughput / 1e6, result.p50, result.p99, result.max));
+      }
+      System.out.println("└");
+   }
+
+   private Result run(int producerCount) throws Exception {
+      final int perProducer = ACTIONS_PER_RUN / producerCount;
+      final int total = perProducer * producerCount;
+      final ActionQueue queue = new ActionQueue();
+      final long[] latencies = new long[total];
+      final int[] lastSequence = new int[producerCount];
+      Arrays.fill(lastSequence, -1);
+      final CountDownLatch start = new CountDownLatch(1);
+      final int[] consumed = {0};
+      final boolean[] outOfOrder = {false};
+
+      Thread consumer = new Thread(() -> {
+         try {
+            while (consumed[0] < total) {
+               queue.drain(a -> {
+                  TimedAction action = (TimedAction) a;
+                  latencies[consumed[0]++] = System.nanoTime() - action.enqueueTime;
+                  //Per producer order must be preserved
+                  if (lastSequence[action.producer] + 1 != action.sequence) outOfOrder[0] = true;
+                  lastSequence[action.producer] = action.sequence;
+               });
+               if (consumed[0] < total) LockSupport.park();
+            }
+         } catch (Exception e) {
+            throw new RuntimeException(e);
+         }
+      });
+      consumer.start();
+
+      Thread[] producers = new Thread[producerCount];
+      for (int p = 0; p < producerCount; p++) {
+         final int producer = p;
+         producers[p] = new Thread(() -> {
+            try {
+               start.await();
+            } catch (InterruptedException e) {
+               return;
+            }
+            for (int i = 0; i < perProducer; i++) {
+               if (queue.offer(new TimedAction(producer, i, System.nanoTime()))) {
+                  LockSupport.unpark(consumer);
+               }
+            }
+         });
+         producers[p].start();
+      }
+
+      long startTime = System.nanoTime();
+      start.countDown();
+      consumer.join();
+      long elapsed = System.nanoTime() - startTime;
+      for (Thread producer : producers) producer.join();
+      Assert.assertFalse("Actions consumed out of order", outOfOrder[0]);
+
+      Arrays.sort(latencies);
+      Result result = new Result();
+      result.throughput = total / (elapsed / 1e9);
+      result.p50 = latencies[total / 2];
+      result.p99 = latencies[(int) (total * 0.99)];
+      result.max = latencies[total - 1];
+      return result;
+   }
+
+   private static final class Result {
+      double throughput;
+      long p50;
+      long p99;
+      long max;
+   }
+
+   private static final class TimedAction implements Action {
+      final int producer;
+      final int sequence;
+      final long enqueueTime;
+
+      TimedAction(int producer, int sequence, long enqueueTime) {
+         this.producer = producer;
+         this.sequence = sequence;
+         this.enqueueTime = enqueueTime;
+      }
+   }
+}
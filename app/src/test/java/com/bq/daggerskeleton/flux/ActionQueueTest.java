@@ -0,0 +1,57 @@
+package com.bq.daggerskeleton.flux;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+public class ActionQueueTest {
+
+   @Test
+   public void testDrainKeepsEnqueueOrder() throws Exception {
+      ActionQueue queue = new ActionQueue();
+      ArrayList<String> drained = new ArrayList<>();
+
+      Assert.assertTrue(queue.offer(new ValueAction("a")));
+      Assert.assertFalse(queue.offer(new ValueAction("b")));
+      Assert.assertEquals(2, queue.drain(a -> drained.add(a.toString())));
+      Assert.assertTrue(queue.offer(new ValueAction("c")));
+      queue.drain(a -> drained.add(a.toString()));
+
+      Assert.assertArrayEquals(new String[]{"a", "b", "c"}, drained.toArray());
+   }
+
+   @Test
+   public void testCoalescableActionsCollapseToLatest() throws Exception {
+      ActionQueue queue = new ActionQueue();
+      ArrayList<String> drained = new ArrayList<>();
+
+      queue.offer(new LatestAction("1"));
+      queue.offer(new ValueAction("a"));
+      queue.offer(new LatestAction("2"));
+      queue.offer(new ValueAction("b"));
+      queue.offer(new LatestAction("3"));
+      queue.drain(a -> drained.add(a.toString()));
+
+      Assert.assertArrayEquals(new String[]{"a", "b", "3"}, drained.toArray());
+      Assert.assertEquals(2, queue.coalesced());
+   }
+
+   private static class ValueAction implements Action {
+      final String value;
+
+      ValueAction(String value) {
+         this.value = value;
+      }
+
+      @Override public String toString() {
+         return value;
+      }
+   }
+
+   private static final class LatestAction extends ValueAction implements CoalescableAction {
+      LatestAction(String value) {
+         super(value);
+      }
+   }
+}
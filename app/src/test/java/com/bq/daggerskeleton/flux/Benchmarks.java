@@ -0,0 +1,19 @@
+package com.bq.daggerskeleton.flux;
+
+import org.junit.Assume;
+
+/**
+ * Benchmarks take long and only print numbers, they are skipped unless run with
+ * <code>./gradlew test -Dflux.benchmarks=true</code>.
+ */
+final class Benchmarks {
+
+   static final String PROPERTY = "flux.benchmarks";
+
+   private Benchmarks() {
+   }
+
+   static void assumeEnabled() {
+      Assume.assumeTrue("Benchmarks disabled, run with -D" + PROPERTY + "=true", Boolean.getBoolean(PROPERTY));
+   }
+}
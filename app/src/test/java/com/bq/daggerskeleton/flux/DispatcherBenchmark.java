@@ -0,0 +1,62 @@
+package com.bq.daggerskeleton.flux;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Locale;
+
+/**
+ * Rough JVM measurement of {@link Dispatcher#dispatch(Action)} cost as the number of
+ * subscribers for a single action type grows. Numbers are printed, not asserted.
+ */
+public class DispatcherBenchmark {
+
+   private static final int[] SUBSCRIBER_COUNTS = {1, 10, 100, 1000};
+   private static final int WARMUP_DISPATCHES = 20_000;
+   private static final int MEASURED_DISPATCHES = 100_000;
+
+   private static long sink;
+
+   @Before
+   public void before() {
+      Benchmarks.assumeEnabled();
+      Dispatcher.clearSubscriptions();
+   }
+
+   @After
+   public void after() {
+      Dispatcher.clearSubscriptions();
+   }
+
+   @Test
+   public void dispatchCostBySubscriberCount() throws Exception {
+      BenchAction action = new BenchAction();
+      System.out.println("┌ Dispatcher.dispatch cost");
+      for (int subscribers : SUBSCRIBER_COUNTS) {
+         Dispatcher.clearSubscriptions();
+         for (int i = 0; i < subscribers; i++) {
+            Dispatcher.subscribe(i % 3, BenchAction.class, a -> sink += a.value);
+         }
+
+         int dispatches = MEASURED_DISPATCHES / subscribers + 1;
+         for (int i = 0; i < WARMUP_DISPATCHES / subscribers + 1; i++) {
+            Dispatcher.dispatch(action);
+         }
+
+         long start = System.nanoTime();
+         for (int i = 0; i < dispatches; i++) {
+            Dispatcher.dispatch(action);
+         }
+         long elapsed = System.nanoTime() - start;
+
+         System.out.println(String.format(Locale.US, "├ %4d subscribers: %8.1f ns/dispatch, %5.1f ns/subscriber",
+               subscribers, elapsed / (double) dispatches, elapsed / (double) dispatches / subscribers));
+      }
+      System.out.println("└ sink=" + sink);
+   }
+
+   private static final class BenchAction implements Action {
+      final int value = 1;
+   }
+}
@@ -7,8 +7,16 @@ import org.junit.Test;
 import org.junit.runners.JUnit4;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.disposables.Disposable;
 import io.reactivex.functions.Consumer;
+import io.reactivex.subscribers.TestSubscriber;
 
 
 public class DispatcherTest {
@@ -43,7 +51,310 @@ public class DispatcherTest {
       Assert.assertArrayEquals(expectedCallOrder, callOrder.toArray());
    }
 
+   @Test
+   public void testSamePrioritySubscriptionsKeepSubscriptionOrder() throws Exception {
+      ArrayList<String> callOrder = new ArrayList<>();
+
+      Dispatcher.subscribe(Dispatcher.DEFAULT_PRIORITY, DummyAction.class, a -> callOrder.add("a"));
+      Dispatcher.subscribe(Dispatcher.DEFAULT_PRIORITY, DummyAction.class, a -> callOrder.add("b"));
+      Dispatcher.subscribe(Dispatcher.HIGH_PRIORITY, DummyAction.class, a -> callOrder.add("c"));
+      Dispatcher.subscribe(Dispatcher.DEFAULT_PRIORITY, DummyAction.class, a -> callOrder.add("d"));
+
+      Dispatcher.dispatch(new DummyAction());
+
+      String[] expectedCallOrder = {"c", "a", "b", "d"};
+      Assert.assertArrayEquals(expectedCallOrder, callOrder.toArray());
+   }
+
+   @Test
+   public void testSubscribeWhileDispatchingDoesNotAffectCurrentDispatch() throws Exception {
+      ArrayList<String> callOrder = new ArrayList<>();
+
+      Dispatcher.subscribe(DummyAction.class, a -> {
+         callOrder.add("a");
+         Dispatcher.subscribe(DummyAction.class, b -> callOrder.add("b"));
+      });
+
+      Dispatcher.dispatch(new DummyAction());
+
+      String[] expectedCallOrder = {"a"};
+      Assert.assertArrayEquals(expectedCallOrder, callOrder.toArray());
+   }
+
+   @Test
+   public void testSupertypeSubscriptionsReceiveSubtypes() throws Exception {
+      ArrayList<String> callOrder = new ArrayList<>();
+
+      Dispatcher.subscribe(3, DummyAction.class, a -> callOrder.add("dummy"));
+      Dispatcher.subscribe(1, BaseAction.class, a -> callOrder.add("base"));
+      Dispatcher.subscribe(2, Action.class, a -> callOrder.add("action"));
+      Dispatcher.subscribe(1, MarkerAction.class, a -> callOrder.add("marker"));
+      Dispatcher.subscribe(0, ChildAction.class, a -> callOrder.add("child"));
+
+      Dispatcher.dispatch(new ChildAction());
+      Dispatcher.dispatch(new DummyAction());
+
+      String[] expectedCallOrder = {"child", "base", "marker", "action", "action", "dummy"};
+      Assert.assertArrayEquals(expectedCallOrder, callOrder.toArray());
+   }
+
+   @Test
+   public void testResolvedSubscriptionsRefreshAfterSubscribe() throws Exception {
+      ArrayList<String> callOrder = new ArrayList<>();
+
+      Dispatcher.subscribe(ChildAction.class, a -> callOrder.add("child"));
+      Dispatcher.dispatch(new ChildAction());
+      Dispatcher.subscribe(BaseAction.class, a -> callOrder.add("base"));
+      Dispatcher.dispatch(new ChildAction());
+
+      String[] expectedCallOrder = {"child", "child", "base"};
+      Assert.assertArrayEquals(expectedCallOrder, callOrder.toArray());
+   }
+
+   @Test
+   public void testBatchPublishesFinalStateOnce() throws Exception {
+      CounterStore store = new CounterStore();
+      ArrayList<Integer> emissions = new ArrayList<>();
+      store.flowable().subscribe(emissions::add);
+
+      Dispatcher.dispatchAll(Arrays.asList(new DummyAction(), new DummyAction(), new DummyAction()));
+      Assert.assertEquals(3, store.state().intValue());
+      Assert.assertArrayEquals(new Integer[]{0, 3}, emissions.toArray());
+
+      Dispatcher.batch(() -> {
+         Dispatcher.dispatch(new DummyAction());
+         Dispatcher.dispatchAll(Arrays.asList(new DummyAction(), new DummyAction()));
+         Assert.assertEquals(6, store.state().intValue());
+         Assert.assertEquals(2, emissions.size());
+      });
+      Assert.assertArrayEquals(new Integer[]{0, 3, 6}, emissions.toArray());
+
+      Dispatcher.dispatch(new DummyAction());
+      Assert.assertArrayEquals(new Integer[]{0, 3, 6, 7}, emissions.toArray());
+   }
+
+   @Test
+   public void testStatsCountActionsSubscriptionsAndDepth() throws Exception {
+      DispatchStats stats = Dispatcher.enableStats();
+      Dispatcher.subscribe(DummyAction.class, a -> Dispatcher.dispatch(new ChildAction()));
+      Dispatcher.subscribe(ChildAction.class, a -> {
+      });
+
+      Dispatcher.dispatch(new DummyAction());
+      Dispatcher.dispatch(new ChildAction());
+
+      Assert.assertEquals(1, stats.forAction(DummyAction.class).count());
+      Assert.assertEquals(1, stats.forAction(DummyAction.class).maxDepth());
+      Assert.assertEquals(2, stats.forAction(ChildAction.class).count());
+      Assert.assertEquals(2, stats.forAction(ChildAction.class).maxDepth());
+      Assert.assertEquals(2, stats.subscriptions().size());
+      Assert.assertTrue(stats.dump().contains("ChildAction"));
+
+      Dispatcher.disableStats();
+      Dispatcher.dispatch(new ChildAction());
+      Assert.assertEquals(2, stats.forAction(ChildAction.class).count());
+   }
+
+   @Test
+   public void testLambdaSubscriptionsAreNamedAfterTheirDeclaringClass() throws Exception {
+      DispatchStats stats = Dispatcher.enableStats();
+      Dispatcher.subscribe(DummyAction.class, a -> {
+      });
+
+      Dispatcher.dispatch(new DummyAction());
+
+      String name = stats.subscriptions().get(0).name;
+      Assert.assertEquals("DummyAction -> " + DispatcherTest.class.getName() + " [" + Dispatcher.DEFAULT_PRIORITY + "]",
+            name);
+   }
+
+   @Test
+   public void testDisposedSubscriptionsAreRemoved() throws Exception {
+      ArrayList<String> callOrder = new ArrayList<>();
+
+      Disposable a = Dispatcher.subscribe(DummyAction.class, x -> callOrder.add("a"));
+      Disposable b = Dispatcher.subscribe(DummyAction.class).subscribe(x -> callOrder.add("b"));
+      Dispatcher.subscribe(DummyAction.class, x -> callOrder.add("c"));
+      Assert.assertEquals(3, Dispatcher.subscriberCount());
+
+      a.dispose();
+      b.dispose();
+      Dispatcher.dispatch(new DummyAction());
+
+      Assert.assertArrayEquals(new String[]{"c"}, callOrder.toArray());
+      Assert.assertEquals(1, Dispatcher.subscriberCount());
+   }
+
+   @Test
+   public void testSubscriberCountStaysFlatAcrossRecreations() throws Exception {
+      Dispatcher.subscribe(DummyAction.class, x -> {
+      }); //App scoped subscriber that is never released
+      CompositeDisposable pluginScope = new CompositeDisposable();
+
+      for (int i = 0; i < 1000; i++) {
+         //What a plugin would track during onCreate
+         pluginScope.add(Dispatcher.subscribe(DummyAction.class, x -> {
+         }));
+         pluginScope.add(Dispatcher.subscribe(ChildAction.class).subscribe());
+         pluginScope.add(Dispatcher.subscribe(Action.class).take(1).subscribe());
+         Dispatcher.dispatch(new ChildAction());
+         Assert.assertEquals(3, Dispatcher.subscriberCount());
+         //onDestroy
+         pluginScope.clear();
+         Assert.assertEquals(1, Dispatcher.subscriberCount());
+      }
+   }
+
+   @Test
+   public void testOverflowStrategiesDropAndCount() throws Exception {
+      TestSubscriber<DummyAction> latest = new TestSubscriber<>(0);
+      TestSubscriber<DummyAction> dropOldest = new TestSubscriber<>(0);
+      Dispatcher.subscribe(DummyAction.class, OverflowStrategy.LATEST).subscribe(latest);
+      Dispatcher.subscribe(Dispatcher.DEFAULT_PRIORITY, DummyAction.class, OverflowStrategy.DROP_OLDEST, 3)
+            .subscribe(dropOldest);
+
+      DummyAction[] actions = new DummyAction[5];
+      for (int i = 0; i < actions.length; i++) {
+         actions[i] = new DummyAction();
+         Dispatcher.dispatch(actions[i]);
+      }
+
+      latest.request(10);
+      latest.assertValues(actions[4]);
+      dropOldest.request(10);
+      dropOldest.assertValues(actions[2], actions[3], actions[4]);
+
+      Assert.assertEquals(2, Dispatcher.droppedActions().size());
+      Assert.assertTrue(Dispatcher.droppedActions().containsValue(4L));
+      Assert.assertTrue(Dispatcher.droppedActions().containsValue(2L));
+   }
+
+   @Test
+   public void testKeyedSubscriptionsOnlyReceiveTheirKey() throws Exception {
+      ArrayList<String> callOrder = new ArrayList<>();
+
+      Dispatcher.subscribe(2, PhaseAction.class, a -> callOrder.add("all " + a.phase));
+      Dispatcher.subscribe(1, PhaseAction.class, Phase.FIRST, a -> callOrder.add("first"));
+      Dispatcher.subscribe(3, PhaseAction.class, Phase.SECOND, a -> callOrder.add("second"));
+      Dispatcher.subscribe(0, Action.class, a -> callOrder.add("action"));
+
+      Dispatcher.dispatch(new PhaseAction(Phase.FIRST));
+      Dispatcher.dispatch(new PhaseAction(Phase.SECOND));
+      Dispatcher.dispatch(new PhaseAction(Phase.THIRD));
+
+      String[] expectedCallOrder = {
+            "action", "first", "all FIRST",
+            "action", "all SECOND", "second",
+            "action", "all THIRD"};
+      Assert.assertArrayEquals(expectedCallOrder, callOrder.toArray());
+   }
+
+   @Test
+   public void testSlowSubscriptionsAreDemotedInOrder() throws Exception {
+      Dispatcher.setSlowSubscriberPolicy(new SlowSubscriberPolicy(1, TimeUnit.MILLISECONDS, 2, 4, true));
+      List<Thread> threads = Collections.synchronizedList(new ArrayList<>());
+      List<Integer> values = Collections.synchronizedList(new ArrayList<>());
+      CountDownLatch delivered = new CountDownLatch(5);
+
+      Dispatcher.subscribe(ValueAction.class, a -> {
+         threads.add(Thread.currentThread());
+         values.add(a.value);
+         Thread.sleep(5);
+         delivered.countDown();
+      });
+      for (int i = 0; i < 5; i++) {
+         Dispatcher.dispatch(new ValueAction(i));
+      }
+
+      Assert.assertTrue(delivered.await(5, TimeUnit.SECONDS));
+      Assert.assertArrayEquals(new Integer[]{0, 1, 2, 3, 4}, values.toArray());
+      Assert.assertSame(Thread.currentThread(), threads.get(1));
+      Assert.assertNotSame(Thread.currentThread(), threads.get(2));
+      Assert.assertTrue(Dispatcher.slowSubscriberReport().contains("demoted"));
+   }
+
+   @Test
+   public void testNestedDispatchQueueKeepsOrderFlat() throws Exception {
+      ArrayList<String> callOrder = new ArrayList<>();
+      Dispatcher.enableNestedDispatchQueue(8);
+
+      Dispatcher.subscribe(1, DummyAction.class, a -> {
+         callOrder.add("dummy 1");
+         Dispatcher.dispatch(new ChildAction());
+         Dispatcher.dispatch(new ValueAction(0));
+      });
+      Dispatcher.subscribe(2, DummyAction.class, a -> callOrder.add("dummy 2"));
+      Dispatcher.subscribe(ChildAction.class, a -> callOrder.add("child"));
+      Dispatcher.subscribe(ValueAction.class, a -> callOrder.add("value"));
+
+      Dispatcher.dispatch(new DummyAction());
+
+      String[] expectedCallOrder = {"dummy 1", "dummy 2", "child", "value"};
+      Assert.assertArrayEquals(expectedCallOrder, callOrder.toArray());
+      Assert.assertEquals(2, Dispatcher.maxNestedQueueLength());
+   }
+
+   @Test
+   public void testNestedDispatchQueueLimitsChains() throws Exception {
+      Dispatcher.enableNestedDispatchQueue(8);
+      Dispatcher.subscribe(ValueAction.class, a -> Dispatcher.dispatch(new ValueAction(a.value + 1)));
+
+      try {
+         Dispatcher.dispatch(new ValueAction(0));
+         Assert.fail("Endless chain of nested actions not stopped");
+      } catch (RuntimeException expected) {
+      }
+      Assert.assertEquals(1, Dispatcher.maxNestedQueueLength());
+   }
+
+   private static final class CounterStore extends Store<Integer> {
+
+      CounterStore() {
+         Dispatcher.subscribe(DummyAction.class, a -> setState(state() + 1));
+      }
+
+      @Override protected Integer initialState() {
+         return 0;
+      }
+   }
+
    private static final class DummyAction implements Action {
 
    }
+
+   private interface MarkerAction extends Action {
+
+   }
+
+   private static final class ValueAction implements Action {
+      final int value;
+
+      ValueAction(int value) {
+         this.value = value;
+      }
+   }
+
+   private enum Phase {
+      FIRST, SECOND, THIRD
+   }
+
+   private static final class PhaseAction implements KeyedAction<Phase> {
+      final Phase phase;
+
+      PhaseAction(Phase phase) {
+         this.phase = phase;
+      }
+
+      @Override public Phase key() {
+         return phase;
+      }
+   }
+
+   private static class BaseAction implements Action {
+
+   }
+
+   private static final class ChildAction extends BaseAction implements MarkerAction {
+
+   }
 }
\ No newline at end of file
@@ -0,0 +1,80 @@
+package com.bq.daggerskeleton.flux;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * Rough JVM comparison of folding actions with {@link Store#fold(Object, java.util.List)} against
+ * dispatching them one by one, where every action sets and publishes a state.
+ * Numbers are printed, not asserted.
+ */
+public class ReducerBenchmark {
+
+   private static final int ACTIONS = 100_000;
+   private static final int ROUNDS = 10;
+
+   private static long sink;
+
+   @Before
+   public void before() {
+      Benchmarks.assumeEnabled();
+      Dispatcher.clearSubscriptions();
+   }
+
+   @After
+   public void after() {
+      Dispatcher.clearSubscriptions();
+   }
+
+   @Test
+   public void foldVsDispatch() throws Exception {
+      SumStore store = new SumStore();
+      store.flowable().subscribe(state -> sink += state);
+      ArrayList<AddAction> actions = new ArrayList<>();
+      for (int i = 0; i < ACTIONS; i++) {
+         actions.add(new AddAction(i % 7));
+      }
+
+      long foldNanos = Long.MAX_VALUE;
+      long dispatchNanos = Long.MAX_VALUE;
+      for (int round = 0; round < ROUNDS; round++) {
+         long start = System.nanoTime();
+         sink += store.fold(0L, actions);
+         foldNanos = Math.min(foldNanos, System.nanoTime() - start); //Best round, least noise
+
+         start = System.nanoTime();
+         for (int i = 0; i < actions.size(); i++) {
+            Dispatcher.dispatch(actions.get(i));
+         }
+         dispatchNanos = Math.min(dispatchNanos, System.nanoTime() - start);
+      }
+
+      System.out.println("┌ Reduction of " + ACTIONS + " actions");
+      System.out.println(String.format(Locale.US, "├ fold    : %6.1f ns/action", foldNanos / (double) ACTIONS));
+      System.out.println(String.format(Locale.US, "├ dispatch: %6.1f ns/action", dispatchNanos / (double) ACTIONS));
+      System.out.println("└ sink=" + sink);
+   }
+
+   private static final class SumStore extends Store<Long> {
+
+      SumStore() {
+         addReducer(AddAction.class, (sum, a) -> sum + a.value);
+      }
+
+      @Override protected Long initialState() {
+         return 0L;
+      }
+   }
+
+   private static final class AddAction implements Action {
+      final int value;
+
+      AddAction(int value) {
+         this.value = value;
+      }
+   }
+}
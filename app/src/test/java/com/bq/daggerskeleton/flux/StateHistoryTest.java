@@ -0,0 +1,98 @@
+package com.bq.daggerskeleton.flux;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import io.reactivex.disposables.Disposable;
+
+public class StateHistoryTest {
+
+   private Disposable interceptor;
+
+   @Before
+   public void before() {
+      Dispatcher.clearSubscriptions();
+   }
+
+   @After
+   public void after() {
+      if (interceptor != null) interceptor.dispose();
+      Dispatcher.clearSubscriptions();
+   }
+
+   @Test
+   public void testKeepsTheLastStatesOfTheRecordedStores() throws Exception {
+      StateHistory history = new StateHistory(3, CounterStore.class);
+      interceptor = Store.addInterceptor(history);
+      new CounterStore();
+      new IgnoredStore();
+
+      for (int i = 0; i < 5; i++) {
+         Dispatcher.dispatch(new StepAction());
+      }
+      Dispatcher.dispatch(new OtherAction()); //No change, not recorded
+
+      List<StateHistory.Entry> entries = history.entries(CounterStore.class);
+      Assert.assertEquals(3, entries.size());
+      Assert.assertEquals(3, entries.get(0).state);
+      Assert.assertEquals(5, entries.get(2).state);
+      Assert.assertTrue(entries.get(2).action instanceof StepAction);
+      Assert.assertTrue(history.entries(IgnoredStore.class).isEmpty());
+   }
+
+   @Test
+   public void testDiffUsesTheStoreSchema() throws Exception {
+      StateHistory history = new StateHistory(8);
+      interceptor = Store.addInterceptor(history);
+      new CounterStore();
+      new IgnoredStore();
+
+      Dispatcher.dispatch(new StepAction());
+      Dispatcher.dispatch(new StepAction());
+
+      Assert.assertEquals("count: 1 -> 2", history.diff(CounterStore.class, 0, 1));
+      Assert.assertEquals("No changes", history.diff(CounterStore.class, 1, 1));
+      Assert.assertEquals("1 -> 2", history.diff(IgnoredStore.class, 0, 1));
+   }
+
+   private static final class CounterStore extends Store<Integer> {
+
+      private static final StateSchema<Integer> SCHEMA = StateSchema.<Integer>builder()
+            .intField("count", n -> n)
+            .build();
+
+      CounterStore() {
+         addReducer(StepAction.class, (n, a) -> n + 1);
+         addReducer(OtherAction.class, (n, a) -> n);
+      }
+
+      @Override protected Integer initialState() {
+         return 0;
+      }
+
+      @Override public StateSchema<Integer> stateSchema() {
+         return SCHEMA;
+      }
+   }
+
+   private static final class IgnoredStore extends Store<Integer> {
+
+      IgnoredStore() {
+         addReducer(StepAction.class, (n, a) -> n + 1);
+      }
+
+      @Override protected Integer initialState() {
+         return 0;
+      }
+   }
+
+   private static final class StepAction implements Action {
+   }
+
+   private static final class OtherAction implements Action {
+   }
+}
@@ -0,0 +1,57 @@
+package com.bq.daggerskeleton.flux;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StateSchemaTest {
+
+   private final StateSchema<Sample> schema = StateSchema.<Sample>builder()
+         .field("name", s -> s.name)
+         .intField("count", s -> s.count)
+         .identityField("handle", s -> s.handle)
+         .maxValueLength(8)
+         .build();
+
+   @Test
+   public void testDiffOnlyIncludesChangedFields() throws Exception {
+      Object handle = new Object();
+      StringBuilder out = new StringBuilder();
+
+      boolean changed = schema.diff(new Sample("a", 1, handle), new Sample("a", 2, handle), out);
+
+      Assert.assertTrue(changed);
+      Assert.assertEquals("count: 1 -> 2", out.toString());
+   }
+
+   @Test
+   public void testEqualStatesLeaveTheOutputUntouched() throws Exception {
+      Object handle = new Object();
+      StringBuilder out = new StringBuilder();
+
+      boolean changed = schema.diff(new Sample(new String("a"), 1000, handle), new Sample("a", 1000, handle), out);
+
+      Assert.assertFalse(changed);
+      Assert.assertEquals(0, out.length());
+   }
+
+   @Test
+   public void testLongValuesAreCut() throws Exception {
+      StringBuilder out = new StringBuilder();
+
+      schema.diff(new Sample("short", 0, null), new Sample("a very long name", 0, null), out);
+
+      Assert.assertEquals("name: short -> a very l…", out.toString());
+   }
+
+   private static final class Sample {
+      final String name;
+      final int count;
+      final Object handle;
+
+      Sample(String name, int count, Object handle) {
+         this.name = name;
+         this.count = count;
+         this.handle = handle;
+      }
+   }
+}
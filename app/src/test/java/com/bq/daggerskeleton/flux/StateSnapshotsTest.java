@@ -0,0 +1,98 @@
+package com.bq.daggerskeleton.flux;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class StateSnapshotsTest {
+
+   @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+   @Before
+   public void before() {
+      Dispatcher.clearSubscriptions();
+   }
+
+   @After
+   public void after() {
+      Dispatcher.clearSubscriptions();
+   }
+
+   @Test
+   public void testSaveAndRestore() throws Exception {
+      File file = new File(folder.getRoot(), "snapshot");
+      NameStore names = new NameStore();
+      names.rename("first", 3);
+      TransientStore other = new TransientStore();
+      new StateSnapshots(file, 1024, 1, Arrays.asList(names, other)).save().get();
+
+      //Next process
+      NameStore restored = new NameStore();
+      int count = new StateSnapshots(file, 1024, 1, Arrays.asList(restored, new TransientStore())).restore();
+
+      Assert.assertEquals(1, count);
+      Assert.assertEquals("first", restored.state().name);
+      Assert.assertEquals(0, restored.state().visits); //Not in the snapshot
+   }
+
+   @Test
+   public void testSnapshotsFromOtherVersionsAreDiscarded() throws Exception {
+      File file = new File(folder.getRoot(), "snapshot");
+      NameStore names = new NameStore();
+      names.rename("first", 3);
+      new StateSnapshots(file, 1024, 1, Collections.singletonList(names)).save().get();
+
+      NameStore restored = new NameStore();
+      int count = new StateSnapshots(file, 1024, 2, Collections.singletonList(restored)).restore();
+
+      Assert.assertEquals(0, count);
+      Assert.assertNull(restored.state().name);
+   }
+
+   private static final class Named {
+      final String name;
+      final int visits;
+
+      Named(String name, int visits) {
+         this.name = name;
+         this.visits = visits;
+      }
+   }
+
+   private static final class NameStore extends Store<Named> {
+
+      void rename(String name, int visits) {
+         setState(new Named(name, visits));
+      }
+
+      @Override protected Named initialState() {
+         return new Named(null, 0);
+      }
+
+      @Override protected StateCodec<Named> snapshotCodec() {
+         return new StateCodec<Named>() {
+            @Override public void encode(Named state, ByteBuffer out) {
+               StateSnapshots.putString(out, state.name);
+            }
+
+            @Override public Named decode(Named state, ByteBuffer in) {
+               return new Named(StateSnapshots.getString(in), state.visits);
+            }
+         };
+      }
+   }
+
+   private static final class TransientStore extends Store<Integer> {
+      @Override protected Integer initialState() {
+         return 0;
+      }
+   }
+}
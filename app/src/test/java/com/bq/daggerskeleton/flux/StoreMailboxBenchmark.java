@@ -0,0 +1,110 @@
+package com.bq.daggerskeleton.flux;
+
+import android.os.Handler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rough JVM comparison of synchronous reduction against {@link Store#setMailboxesEnabled(boolean)}
+ * for a few stores with non trivial reducers. The test thread plays the ui thread, emissions are
+ * delivered straight from the mailbox threads since there is no looper. Numbers are printed,
+ * not asserted.
+ */
+public class StoreMailboxBenchmark {
+
+   private static final int STORES = 4;
+   private static final int REDUCER_WORK = 20_000;
+   private static final int WARMUP_DISPATCHES = 500;
+   private static final int MEASURED_DISPATCHES = 2_000;
+
+   private static volatile CountDownLatch emitted;
+
+   @Before
+   public void before() {
+      Benchmarks.assumeEnabled();
+      Dispatcher.clearSubscriptions();
+      Mailbox.setUiExecutor(Runnable::run);
+   }
+
+   @After
+   public void after() {
+      Dispatcher.clearSubscriptions();
+      Store.setMailboxesEnabled(false);
+      Mailbox.setUiExecutor(new Handler()::post);
+   }
+
+   @Test
+   public void synchronousVsMailboxes() throws Exception {
+      System.out.println("┌ " + STORES + " stores, " + REDUCER_WORK + " iterations per reducer");
+      measure("synchronous", false);
+      measure("mailboxes", true);
+      System.out.println("└ " + Runtime.getRuntime().availableProcessors() + " cpus");
+   }
+
+   private void measure(String name, boolean mailboxes) throws Exception {
+      Dispatcher.clearSubscriptions();
+      Store.setMailboxesEnabled(mailboxes);
+      for (int i = 0; i < STORES; i++) {
+         new BenchStore().flowable().skip(1).subscribe(state -> emitted.countDown());
+      }
+
+      BenchAction action = new BenchAction();
+      for (int i = 0; i < WARMUP_DISPATCHES; i++) {
+         dispatchAndWait(action);
+      }
+
+      long uiNanos = 0;
+      long endToEndNanos = 0;
+      for (int i = 0; i < MEASURED_DISPATCHES; i++) {
+         long start = System.nanoTime();
+         uiNanos += dispatchAndWait(action) - start;
+         endToEndNanos += System.nanoTime() - start;
+      }
+
+      System.out.println(String.format(Locale.US, "├ %-11s: %7.1f us/action end to end, %7.1f us/action in ui thread",
+            name, endToEndNanos / 1000.0 / MEASURED_DISPATCHES, uiNanos / 1000.0 / MEASURED_DISPATCHES));
+   }
+
+   /**
+    * @return When dispatch returned and the ui thread was free again.
+    */
+   private static long dispatchAndWait(Action action) throws Exception {
+      emitted = new CountDownLatch(STORES);
+      Dispatcher.dispatch(action);
+      long dispatched = System.nanoTime();
+      if (!emitted.await(10, TimeUnit.SECONDS)) throw new AssertionError("Stores did not emit");
+      return dispatched;
+   }
+
+   private static final class BenchStore extends Store<Integer> {
+      long sink;
+
+      BenchStore() {
+         subscribe(BenchAction.class, a -> setState(state() + reduce()));
+      }
+
+      @Override protected Integer initialState() {
+         return 0;
+      }
+
+      private int reduce() {
+         long x = sink + 1;
+         for (int i = 0; i < REDUCER_WORK; i++) {
+            x ^= x << 13;
+            x ^= x >>> 7;
+            x ^= x << 17;
+         }
+         sink = x;
+         return 1;
+      }
+   }
+
+   private static final class BenchAction implements Action {
+   }
+}
@@ -0,0 +1,407 @@
+package com.bq.daggerskeleton.flux;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.Flowable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.subscribers.TestSubscriber;
+
+
+public class StoreTest {
+
+   @Before
+   public void before() {
+      Dispatcher.clearSubscriptions();
+   }
+
+   @After
+   public void after() {
+      Dispatcher.clearSubscriptions();
+   }
+
+   @Test
+   public void testSelectEmitsOnlyWhenTheProjectionChanges() throws Exception {
+      CounterStore store = new CounterStore();
+      AtomicInteger computed = new AtomicInteger();
+      Flowable<Integer> tens = store.select(n -> {
+         computed.incrementAndGet();
+         return n / 10;
+      });
+
+      TestSubscriber<Integer> first = new TestSubscriber<>();
+      tens.subscribe(first);
+      for (int i = 0; i < 12; i++) {
+         Dispatcher.dispatch(new StepAction());
+      }
+      TestSubscriber<Integer> second = new TestSubscriber<>();
+      tens.subscribe(second);
+
+      first.assertValues(0, 1);
+      second.assertValues(1);
+      Assert.assertEquals(13, computed.get()); //Initial state and every change, once for both subscribers
+   }
+
+   @Test
+   public void testSelectCombinesSeveralInputs() throws Exception {
+      CounterStore store = new CounterStore();
+      Flowable<String> tensAndParity = Store.select(
+            store.select(n -> n / 10),
+            store.select(n -> n % 2 == 0),
+            (tens, even) -> tens + (even ? " even" : " odd"));
+
+      TestSubscriber<String> subscriber = new TestSubscriber<>();
+      tensAndParity.subscribe(subscriber);
+      Dispatcher.dispatch(new StepAction());
+      Dispatcher.dispatch(new StepAction());
+
+      subscriber.assertValues("0 even", "0 odd", "0 even");
+   }
+
+   @Test
+   public void testLateSubscribersGetTheCurrentState() throws Exception {
+      CounterStore store = new CounterStore();
+      TestSubscriber<Integer> early = new TestSubscriber<>();
+      store.flowable().subscribe(early);
+      Dispatcher.dispatch(new StepAction());
+      Dispatcher.dispatch(new StepAction());
+      TestSubscriber<Integer> late = new TestSubscriber<>();
+      store.flowable().subscribe(late);
+      Dispatcher.dispatch(new StepAction());
+
+      early.assertValues(0, 1, 2, 3);
+      late.assertValues(2, 3);
+   }
+
+   @Test
+   public void testSlowSubscribersOnlyGetTheLatestState() throws Exception {
+      CounterStore store = new CounterStore();
+      TestSubscriber<Integer> slow = new TestSubscriber<>(1);
+      store.flowable().subscribe(slow);
+      for (int i = 0; i < 5; i++) {
+         Dispatcher.dispatch(new StepAction());
+      }
+      slow.request(10);
+
+      slow.assertValues(0, 5);
+   }
+
+   @Test
+   public void testConcurrentUpdatesAreAtomicAndPublishedInOrder() throws Exception {
+      final int threads = 4;
+      final int increments = 20_000;
+      CounterStore store = new CounterStore();
+      List<Integer> emissions = Collections.synchronizedList(new ArrayList<>());
+      store.flowable().subscribe(emissions::add);
+
+      CountDownLatch start = new CountDownLatch(1);
+      ArrayList<Thread> workers = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+         Thread worker = new Thread(() -> {
+            awaitUninterruptibly(start);
+            for (int i = 0; i < increments; i++) {
+               store.increment();
+            }
+         });
+         worker.start();
+         workers.add(worker);
+      }
+      start.countDown();
+      for (Thread worker : workers) {
+         worker.join();
+      }
+
+      Assert.assertEquals(threads * increments, store.state().intValue());
+      Assert.assertEquals(threads * increments, emissions.get(emissions.size() - 1).intValue());
+      for (int i = 1; i < emissions.size(); i++) {
+         Assert.assertTrue("Stale state published", emissions.get(i) > emissions.get(i - 1));
+      }
+   }
+
+   @Test
+   public void testReadersSeeConsistentStates() throws Exception {
+      RangeStore store = new RangeStore();
+      AtomicBoolean writing = new AtomicBoolean(true);
+      AtomicBoolean consistent = new AtomicBoolean(true);
+
+      Thread reader = new Thread(() -> {
+         while (writing.get()) {
+            Range range = store.state();
+            if (range.high - range.low != Range.SIZE) consistent.set(false);
+         }
+      });
+      reader.start();
+      Thread writer = new Thread(() -> {
+         for (int i = 0; i < 100_000; i++) {
+            store.shift();
+         }
+      });
+      writer.start();
+      for (int i = 0; i < 100_000; i++) {
+         store.shift();
+      }
+      writer.join();
+      writing.set(false);
+      reader.join();
+
+      Assert.assertTrue("Reader saw a torn state", consistent.get());
+      Assert.assertEquals(200_000, store.state().low);
+   }
+
+   @Test
+   public void testFoldReducesWithoutChangingTheStore() throws Exception {
+      CounterStore store = new CounterStore();
+      TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+      store.flowable().subscribe(subscriber);
+
+      int folded = store.fold(10, Arrays.asList(new StepAction(), new OtherAction(), new StepAction()));
+
+      Assert.assertEquals(12, folded);
+      Assert.assertEquals(0, store.state().intValue());
+      subscriber.assertValues(0);
+   }
+
+   @Test
+   public void testDerivedStoresUpdateOncePerDispatch() throws Exception {
+      CounterStore first = new CounterStore();
+      CounterStore second = new CounterStore();
+      SumStore sum = new SumStore(first, second);
+      SumStore total = new SumStore(sum, first); //Depends on another derived store
+      TestSubscriber<Integer> sumSubscriber = new TestSubscriber<>();
+      TestSubscriber<Integer> totalSubscriber = new TestSubscriber<>();
+      sum.flowable().subscribe(sumSubscriber);
+      total.flowable().subscribe(totalSubscriber);
+
+      Dispatcher.dispatch(new StepAction());
+      Dispatcher.dispatch(new OtherAction());
+      Dispatcher.dispatch(new StepAction());
+
+      sumSubscriber.assertValues(0, 2, 4); //Never 1, the state with only one store reduced
+      totalSubscriber.assertValues(0, 3, 6);
+      Assert.assertEquals(3, sum.derived); //Initial state and once per dispatch that changed the inputs
+      Assert.assertEquals(3, total.derived);
+   }
+
+   @Test
+   public void testDisposedDerivedStoresAreNoLongerDerived() throws Exception {
+      CounterStore first = new CounterStore();
+      CounterStore second = new CounterStore();
+      SumStore sum = new SumStore(first, second);
+      sum.state();
+
+      Dispatcher.dispatch(new StepAction());
+      sum.dispose();
+      Dispatcher.dispatch(new StepAction());
+
+      Assert.assertTrue(sum.isDisposed());
+      Assert.assertEquals(2, sum.derived);
+      Assert.assertEquals(2, sum.state().intValue()); //Keeps the last derived state
+   }
+
+   @Test
+   public void testInterceptorsSeeEveryTransition() throws Exception {
+      CounterStore store = new CounterStore();
+      ArrayList<String> transitions = new ArrayList<>();
+      Disposable interceptor = Store.addInterceptor((s, action, previous, next, nanos) -> {
+         String name = action == null ? "-" : action.getClass().getSimpleName();
+         transitions.add(name + " " + previous + " -> " + next);
+      });
+      try {
+         Dispatcher.dispatch(new StepAction());
+         Dispatcher.dispatch(new StepAction());
+         store.increment(); //Outside a reducer
+      } finally {
+         interceptor.dispose();
+      }
+      Dispatcher.dispatch(new StepAction());
+
+      Assert.assertEquals(Arrays.asList("StepAction 0 -> 1", "StepAction 1 -> 2", "- 2 -> 3"), transitions);
+   }
+
+   @Test
+   public void testReducerTimeExcludesPublishing() throws Exception {
+      CounterStore store = new CounterStore();
+      Disposable subscriber = store.flowable().subscribe(n -> Thread.sleep(5));
+      ArrayList<Long> times = new ArrayList<>();
+      Disposable interceptor = Store.addInterceptor((s, action, previous, next, nanos) -> times.add(nanos));
+      try {
+         Dispatcher.dispatch(new StepAction());
+      } finally {
+         interceptor.dispose();
+         subscriber.dispose();
+      }
+
+      Assert.assertEquals(1, times.size());
+      Assert.assertTrue(times.get(0) < TimeUnit.MILLISECONDS.toNanos(5));
+   }
+
+   @Test
+   public void testProfilingAggregatesPerStoreAndAction() throws Exception {
+      CounterStore counter = new CounterStore();
+      ClampStore clamp = new ClampStore();
+      ProfilingInterceptor profiler = new ProfilingInterceptor();
+      Disposable interceptor = Store.addInterceptor(profiler);
+      try {
+         for (int i = 0; i < 3; i++) {
+            Dispatcher.dispatch(new StepAction());
+         }
+      } finally {
+         interceptor.dispose();
+      }
+
+      ArrayList<String> entries = new ArrayList<>();
+      for (ProfilingInterceptor.Entry entry : profiler.entries()) {
+         entries.add(entry.store + " " + entry.action + " " + entry.count() + " " + entry.changes());
+      }
+      Collections.sort(entries);
+      Assert.assertEquals(Arrays.asList("ClampStore StepAction 3 2", "CounterStore StepAction 3 3"), entries);
+   }
+
+   @Test
+   public void testDispatcherReportsNameTheStoreReducers() throws Exception {
+      DispatchStats stats = Dispatcher.enableStats();
+      CounterStore store = new CounterStore();
+
+      Dispatcher.dispatch(new StepAction());
+
+      String name = stats.subscriptions().get(0).name;
+      Assert.assertTrue(name, name.startsWith("StepAction -> " + CounterStore.class.getName()));
+      Assert.assertFalse(name, name.contains("Intercepted"));
+   }
+
+   @Test
+   public void testSlowStoreReducersDemoteTheWholeStore() throws Exception {
+      Mailbox.setUiExecutor(Runnable::run);
+      try {
+         Dispatcher.setSlowSubscriberPolicy(new SlowSubscriberPolicy(1, TimeUnit.MILLISECONDS, 1, 1, true));
+         SlowStore store = new SlowStore();
+
+         for (int i = 0; i < 3; i++) {
+            Dispatcher.dispatch(new StepAction());
+         }
+         Dispatcher.dispatch(new OtherAction());
+
+         awaitUninterruptibly(store.reducedOther);
+         Assert.assertEquals(3, store.state().intValue()); //Reduced in order before OtherAction
+         Assert.assertNotSame(Thread.currentThread(), store.otherThread);
+         String report = Dispatcher.slowSubscriberReport();
+         Assert.assertTrue(report, report.contains(SlowStore.class.getName()));
+         Assert.assertTrue(report, report.contains("demoted"));
+      } finally {
+         Mailbox.setUiExecutor(null);
+      }
+   }
+
+   private static void awaitUninterruptibly(CountDownLatch latch) {
+      try {
+         latch.await();
+      } catch (InterruptedException e) {
+         throw new RuntimeException(e);
+      }
+   }
+
+   private static final class CounterStore extends Store<Integer> {
+
+      CounterStore() {
+         addReducer(StepAction.class, (n, a) -> n + 1);
+      }
+
+      void increment() {
+         update(n -> n + 1);
+      }
+
+      @Override protected Integer initialState() {
+         return 0;
+      }
+   }
+
+   private static final class SlowStore extends Store<Integer> {
+
+      final CountDownLatch reducedOther = new CountDownLatch(1);
+      volatile Thread otherThread;
+
+      SlowStore() {
+         subscribe(StepAction.class, a -> {
+            Thread.sleep(2);
+            setState(state() + 1);
+         });
+         subscribe(OtherAction.class, a -> {
+            otherThread = Thread.currentThread();
+            reducedOther.countDown();
+         });
+      }
+
+      @Override protected Integer initialState() {
+         return 0;
+      }
+   }
+
+   private static final class ClampStore extends Store<Integer> {
+
+      ClampStore() {
+         addReducer(StepAction.class, (n, a) -> Math.min(n + 1, 2));
+      }
+
+      @Override protected Integer initialState() {
+         return 0;
+      }
+   }
+
+   private static final class SumStore extends DerivedStore<Integer> {
+
+      private final Store<Integer> left;
+      private final Store<Integer> right;
+      int derived;
+
+      SumStore(Store<Integer> left, Store<Integer> right) {
+         super(left, right);
+         this.left = left;
+         this.right = right;
+      }
+
+      @Override protected Integer derive() {
+         derived++;
+         return left.state() + right.state();
+      }
+   }
+
+   private static final class RangeStore extends Store<Range> {
+
+      void shift() {
+         update(range -> new Range(range.low + 1));
+      }
+
+      @Override protected Range initialState() {
+         return new Range(0);
+      }
+   }
+
+   private static final class Range {
+      static final int SIZE = 10;
+
+      final int low;
+      final int high;
+
+      Range(int low) {
+         this.low = low;
+         this.high = low + SIZE;
+      }
+   }
+
+   private static final class StepAction implements Action {
+   }
+
+   private static final class OtherAction implements Action {
+   }
+}
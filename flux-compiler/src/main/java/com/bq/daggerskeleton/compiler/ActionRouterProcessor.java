@@ -0,0 +1,433 @@
+package com.bq.daggerskeleton.compiler;
+
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.ExpressionTree;
+import com.sun.source.tree.IdentifierTree;
+import com.sun.source.tree.ImportTree;
+import com.sun.source.tree.MemberSelectTree;
+import com.sun.source.tree.MethodInvocationTree;
+import com.sun.source.tree.NewClassTree;
+import com.sun.source.tree.ParameterizedTypeTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.util.TreePath;
+import com.sun.source.util.TreePathScanner;
+import com.sun.source.util.Trees;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates a <code>&lt;Store&gt;_ActionRouter</code> for every store with
+ * <code>@OnAction</code> methods. The router gives every handler an integer id and calls it
+ * directly from a single switch, {@code Dispatcher.route(store)} registers it.
+ * <p>
+ * Also reports dispatched action types that nothing handles, once every round was processed.
+ * An action is dispatched if the sources call <code>dispatch</code> or <code>dispatchOnUi</code>
+ * with <code>new Action(...)</code>. It is handled by an <code>@OnAction</code> method, a
+ * <code>Reducer</code> field of a store, or a <code>subscribe</code> or <code>addReducer</code>
+ * call, keyed or not, with its class literal, taking it or any of its supertypes. Those are notes
+ * by default, pass <code>flux.strictRouting=true</code> to make them errors.
+ */
+public final class ActionRouterProcessor extends AbstractProcessor {
+
+   private static final String FLUX_PACKAGE = "com.bq.daggerskeleton.flux";
+   private static final String ON_ACTION = FLUX_PACKAGE + ".OnAction";
+   private static final String ACTION = FLUX_PACKAGE + ".Action";
+   private static final String STORE = FLUX_PACKAGE + ".Store";
+   private static final String REDUCER = FLUX_PACKAGE + ".Reducer";
+   private static final String ROUTER_SUFFIX = "_ActionRouter";
+   private static final String OPTION_STRICT = "flux.strictRouting";
+   private static final Set<String> DISPATCH_METHODS = new LinkedHashSet<>(Arrays.asList("dispatch", "dispatchOnUi"));
+   private static final Set<String> HANDLER_METHODS = new LinkedHashSet<>(Arrays.asList("subscribe", "addReducer"));
+   private static final int DEFAULT_PRIORITY = 50;
+
+   private Elements elements;
+   private Types types;
+   private Messager messager;
+   /**
+    * Null if the compiler is not javac, method bodies can't be read and nothing is checked.
+    */
+   private Trees trees;
+   private boolean strict;
+   /**
+    * Qualified names, elements can't be kept from one round to the next.
+    */
+   private final Set<String> dispatchedActions = new LinkedHashSet<>();
+   private final Set<String> handledActions = new LinkedHashSet<>();
+
+   @Override public synchronized void init(ProcessingEnvironment processingEnv) {
+      super.init(processingEnv);
+      elements = processingEnv.getElementUtils();
+      types = processingEnv.getTypeUtils();
+      messager = processingEnv.getMessager();
+      strict = Boolean.parseBoolean(processingEnv.getOptions().get(OPTION_STRICT));
+      try {
+         trees = Trees.instance(processingEnv);
+      } catch (IllegalArgumentException e) {
+         trees = null;
+      }
+   }
+
+   @Override public Set<String> getSupportedAnnotationTypes() {
+      return Collections.singleton(ON_ACTION);
+   }
+
+   @Override public Set<String> getSupportedOptions() {
+      return Collections.singleton(OPTION_STRICT);
+   }
+
+   @Override public SourceVersion getSupportedSourceVersion() {
+      return SourceVersion.latestSupported();
+   }
+
+   @Override public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+      TypeElement onAction = elements.getTypeElement(ON_ACTION);
+      TypeElement action = elements.getTypeElement(ACTION);
+      TypeElement store = elements.getTypeElement(STORE);
+      if (onAction == null || action == null || store == null) return false;
+
+      if (roundEnv.processingOver()) {
+         if (trees != null) checkUnhandledActions(action);
+         return false;
+      }
+
+      Map<TypeElement, List<Handler>> handlersByStore = new LinkedHashMap<>();
+
+      for (Element element : roundEnv.getElementsAnnotatedWith(onAction)) {
+         Handler handler = parseHandler(element, onAction, action, store);
+         if (handler == null) continue;
+         List<Handler> handlers = handlersByStore.get(handler.store);
+         if (handlers == null) {
+            handlers = new ArrayList<>();
+            handlersByStore.put(handler.store, handlers);
+         }
+         handlers.add(handler);
+         handledActions.add(handler.actionType);
+      }
+
+      for (Map.Entry<TypeElement, List<Handler>> entry : handlersByStore.entrySet()) {
+         writeRouter(entry.getKey(), entry.getValue());
+      }
+
+      for (Element element : roundEnv.getRootElements()) {
+         collectReducers(element, store);
+         if (trees != null && element instanceof TypeElement) {
+            TreePath path = trees.getPath(element);
+            if (path != null) new ActionScanner().scan(path, null);
+         }
+      }
+      return true;
+   }
+
+   private Handler parseHandler(Element element, TypeElement onAction, TypeElement action, TypeElement store) {
+      if (element.getKind() != ElementKind.METHOD) {
+         error(element, "@OnAction can only be applied to methods");
+         return null;
+      }
+      ExecutableElement method = (ExecutableElement) element;
+      TypeElement enclosing = (TypeElement) method.getEnclosingElement();
+
+      if (!types.isSubtype(types.erasure(enclosing.asType()), types.erasure(store.asType()))) {
+         error(method, "@OnAction methods must be declared in a Store subclass, %s is not", enclosing.getSimpleName());
+         return null;
+      }
+      if (method.getModifiers().contains(Modifier.PRIVATE) || method.getModifiers().contains(Modifier.STATIC)) {
+         error(method, "@OnAction methods must not be private or static");
+         return null;
+      }
+      if (method.getParameters().size() != 1) {
+         error(method, "@OnAction methods must take exactly one Action parameter");
+         return null;
+      }
+      TypeMirror parameter = types.erasure(method.getParameters().get(0).asType());
+      if (!types.isAssignable(parameter, action.asType())) {
+         error(method, "@OnAction parameter %s does not implement Action", parameter);
+         return null;
+      }
+      for (TypeMirror thrown : method.getThrownTypes()) {
+         if (!types.isSubtype(thrown, elements.getTypeElement(RuntimeException.class.getName()).asType())
+               && !types.isSubtype(thrown, elements.getTypeElement(Error.class.getName()).asType())) {
+            error(method, "@OnAction methods must not throw checked exceptions, %s is one, handle it in the store", thrown);
+            return null;
+         }
+      }
+
+      return new Handler(enclosing, method.getSimpleName().toString(), parameter.toString(), priorityOf(method, onAction));
+   }
+
+   private int priorityOf(ExecutableElement method, TypeElement onAction) {
+      for (AnnotationMirror mirror : method.getAnnotationMirrors()) {
+         if (!types.isSameType(mirror.getAnnotationType(), onAction.asType())) continue;
+         for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value
+               : mirror.getElementValues().entrySet()) {
+            if (value.getKey().getSimpleName().contentEquals("priority")) {
+               return (Integer) value.getValue().getValue();
+            }
+         }
+      }
+      return DEFAULT_PRIORITY;
+   }
+
+   /**
+    * Remember the types handled by the <code>Reducer</code> fields of stores declared in
+    * <code>element</code>.
+    */
+   private void collectReducers(Element element, TypeElement store) {
+      if (element.getKind() == ElementKind.CLASS
+            && types.isSubtype(types.erasure(element.asType()), types.erasure(store.asType()))) {
+         for (Element enclosed : element.getEnclosedElements()) {
+            if (enclosed.getKind() == ElementKind.FIELD) collectReducer(enclosed.asType());
+         }
+      }
+      for (Element enclosed : element.getEnclosedElements()) {
+         if (enclosed instanceof TypeElement) collectReducers(enclosed, store);
+      }
+   }
+
+   private void collectReducer(TypeMirror field) {
+      if (field.getKind() != TypeKind.DECLARED) return;
+      DeclaredType declared = (DeclaredType) field;
+      TypeElement fieldType = (TypeElement) declared.asElement();
+      if (!fieldType.getQualifiedName().contentEquals(REDUCER) || declared.getTypeArguments().size() != 2) return;
+      TypeMirror reduced = declared.getTypeArguments().get(1);
+      if (reduced.getKind() == TypeKind.DECLARED) {
+         handledActions.add(((TypeElement) ((DeclaredType) reduced).asElement()).getQualifiedName().toString());
+      }
+   }
+
+   private void checkUnhandledActions(TypeElement action) {
+      List<TypeMirror> handled = new ArrayList<>();
+      for (String name : handledActions) {
+         TypeElement type = elements.getTypeElement(name);
+         if (type != null) handled.add(types.erasure(type.asType()));
+      }
+      int checked = 0;
+      for (String name : dispatchedActions) {
+         TypeElement type = elements.getTypeElement(name);
+         if (type == null || !types.isAssignable(types.erasure(type.asType()), action.asType())) continue;
+         checked++;
+         if (isHandled(types.erasure(type.asType()), handled)) continue;
+         messager.printMessage(strict ? Diagnostic.Kind.ERROR : Diagnostic.Kind.NOTE,
+               "No @OnAction handler, Reducer or subscription for dispatched " + name, type);
+      }
+      messager.printMessage(Diagnostic.Kind.NOTE, String.format("Checked %d dispatched action types, %s",
+            checked, strict ? "unhandled ones fail the build" : "pass " + OPTION_STRICT + "=true to fail the build"));
+   }
+
+   private boolean isHandled(TypeMirror actionType, List<TypeMirror> handled) {
+      for (TypeMirror handledType : handled) {
+         if (types.isAssignable(actionType, handledType)) return true;
+      }
+      return false;
+   }
+
+   private void writeRouter(TypeElement store, List<Handler> handlers) {
+      String packageName = elements.getPackageOf(store).getQualifiedName().toString();
+      String storeName = store.getQualifiedName().toString();
+      String routerName = binarySimpleName(store, packageName) + ROUTER_SUFFIX;
+
+      StringBuilder types = new StringBuilder();
+      StringBuilder priorities = new StringBuilder();
+      StringBuilder cases = new StringBuilder();
+      for (int id = 0; id < handlers.size(); id++) {
+         Handler handler = handlers.get(id);
+         if (id > 0) {
+            types.append(", ");
+            priorities.append(", ");
+         }
+         types.append(handler.actionType).append(".class");
+         priorities.append(handler.priority);
+         cases.append("         case ").append(id).append(":\n")
+               .append("            target.").append(handler.method)
+               .append("((").append(handler.actionType).append(") action);\n")
+               .append("            break;\n");
+      }
+
+      String source = ""
+            + "// Generated code from ActionRouterProcessor. Do not modify!\n"
+            + "package " + packageName + ";\n"
+            + "\n"
+            + "import " + ACTION + ";\n"
+            + "import " + FLUX_PACKAGE + ".ActionRouter;\n"
+            + "\n"
+            + "public final class " + routerName + " implements ActionRouter {\n"
+            + "\n"
+            + "   private static final Class<?>[] ACTION_TYPES = {" + types + "};\n"
+            + "   private static final int[] PRIORITIES = {" + priorities + "};\n"
+            + "\n"
+            + "   private final " + storeName + " target;\n"
+            + "\n"
+            + "   public " + routerName + "(" + storeName + " target) {\n"
+            + "      this.target = target;\n"
+            + "   }\n"
+            + "\n"
+            + "   @Override public int routeCount() {\n"
+            + "      return ACTION_TYPES.length;\n"
+            + "   }\n"
+            + "\n"
+            + "   @Override public Class<?> actionType(int id) {\n"
+            + "      return ACTION_TYPES[id];\n"
+            + "   }\n"
+            + "\n"
+            + "   @Override public int priority(int id) {\n"
+            + "      return PRIORITIES[id];\n"
+            + "   }\n"
+            + "\n"
+            + "   @Override public void route(int id, Action action) {\n"
+            + "      switch (id) {\n"
+            + cases
+            + "         default:\n"
+            + "            throw new IllegalArgumentException(\"Unknown action id: \" + id);\n"
+            + "      }\n"
+            + "   }\n"
+            + "}\n";
+
+      try {
+         JavaFileObject file = processingEnv.getFiler().createSourceFile(packageName + "." + routerName, store);
+         Writer writer = file.openWriter();
+         try {
+            writer.write(source);
+         } finally {
+            writer.close();
+         }
+      } catch (IOException e) {
+         error(store, "Unable to write action router for %s: %s", store.getSimpleName(), e.getMessage());
+      }
+   }
+
+   /**
+    * Nested stores get their enclosing names, <code>Outer$Inner</code>, like class files.
+    */
+   private static String binarySimpleName(TypeElement type, String packageName) {
+      String qualified = type.getQualifiedName().toString();
+      String simple = packageName.isEmpty() ? qualified : qualified.substring(packageName.length() + 1);
+      return simple.replace('.', '$');
+   }
+
+   /**
+    * Qualified name of the type the tree names, resolved like javac would from the enclosing
+    * classes, the imports and the package of the compilation unit, or null if it is unknown.
+    */
+   private String resolveType(Tree tree, TreePath path) {
+      if (tree instanceof ParameterizedTypeTree) {
+         return resolveType(((ParameterizedTypeTree) tree).getType(), path);
+      }
+      if (tree instanceof MemberSelectTree) {
+         MemberSelectTree select = (MemberSelectTree) tree;
+         if (elements.getTypeElement(select.toString()) != null) return select.toString();
+         String outer = resolveType(select.getExpression(), path);
+         return outer == null ? null : existing(outer + "." + select.getIdentifier());
+      }
+      if (!(tree instanceof IdentifierTree)) return null;
+      String name = ((IdentifierTree) tree).getName().toString();
+
+      for (TreePath current = path; current != null; current = current.getParentPath()) {
+         if (!(current.getLeaf() instanceof ClassTree)) continue;
+         Element enclosing = trees.getElement(current);
+         if (!(enclosing instanceof TypeElement)) continue;
+         for (Element member : elements.getAllMembers((TypeElement) enclosing)) {
+            if (member instanceof TypeElement && member.getSimpleName().contentEquals(name)) {
+               return ((TypeElement) member).getQualifiedName().toString();
+            }
+         }
+      }
+      CompilationUnitTree unit = path.getCompilationUnit();
+      List<String> onDemand = new ArrayList<>();
+      for (ImportTree importTree : unit.getImports()) {
+         if (importTree.isStatic()) continue;
+         String imported = importTree.getQualifiedIdentifier().toString();
+         if (imported.endsWith("." + name)) return imported;
+         if (imported.endsWith(".*")) onDemand.add(imported.substring(0, imported.length() - 1) + name);
+      }
+      String samePackage = unit.getPackageName() == null ? name : unit.getPackageName() + "." + name;
+      if (existing(samePackage) != null) return samePackage;
+      for (String candidate : onDemand) {
+         if (existing(candidate) != null) return candidate;
+      }
+      return existing("java.lang." + name);
+   }
+
+   private String existing(String qualifiedName) {
+      return elements.getTypeElement(qualifiedName) != null ? qualifiedName : null;
+   }
+
+   private void error(Element element, String message, Object... args) {
+      messager.printMessage(Diagnostic.Kind.ERROR, String.format(message, args), element);
+   }
+
+   /**
+    * Collects <code>new</code> arguments of dispatch calls and class literal arguments of
+    * subscriptions in method bodies, by method name since bodies are not attributed yet.
+    */
+   private final class ActionScanner extends TreePathScanner<Void, Void> {
+
+      @Override public Void visitMethodInvocation(MethodInvocationTree node, Void unused) {
+         String method = methodName(node.getMethodSelect());
+         if (DISPATCH_METHODS.contains(method)) {
+            for (ExpressionTree argument : node.getArguments()) {
+               if (!(argument instanceof NewClassTree)) continue;
+               String type = resolveType(((NewClassTree) argument).getIdentifier(), getCurrentPath());
+               if (type != null) dispatchedActions.add(type);
+            }
+         } else if (HANDLER_METHODS.contains(method)) {
+            for (ExpressionTree argument : node.getArguments()) {
+               if (!(argument instanceof MemberSelectTree)) continue;
+               MemberSelectTree select = (MemberSelectTree) argument;
+               if (!select.getIdentifier().contentEquals("class")) continue;
+               String type = resolveType(select.getExpression(), getCurrentPath());
+               if (type != null) handledActions.add(type);
+            }
+         }
+         return super.visitMethodInvocation(node, unused);
+      }
+
+      private String methodName(ExpressionTree select) {
+         if (select instanceof MemberSelectTree) return ((MemberSelectTree) select).getIdentifier().toString();
+         if (select instanceof IdentifierTree) return ((IdentifierTree) select).getName().toString();
+         return null;
+      }
+   }
+
+   private static final class Handler {
+      final TypeElement store;
+      final String method;
+      final String actionType;
+      final int priority;
+
+      Handler(TypeElement store, String method, String actionType, int priority) {
+         this.store = store;
+         this.method = method;
+         this.actionType = actionType;
+         this.priority = priority;
+      }
+   }
+}